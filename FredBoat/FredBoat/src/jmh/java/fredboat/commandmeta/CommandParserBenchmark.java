@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.commandmeta;
+
+import fredboat.commandmeta.abs.Command;
+import fredboat.commandmeta.abs.CommandContext;
+import fredboat.messaging.internal.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parsing a corpus of chat messages, most of them not commands, like in a busy guild. Compares the regex and split based
+ * parsing that CommandContext#parse used to do with the CommandParser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandParserBenchmark {
+
+    private static final String PREFIX = ";;";
+    private static final long SELF_ID = 184405311681986560L;
+    private static final String SELF_ID_STRING = Long.toString(SELF_ID);
+    private static final Pattern MENTION_PREFIX = Pattern.compile("^(<@!?([0-9]+)>)(.*)$", Pattern.DOTALL);
+
+    private static final String[] CORPUS = {
+            "lol",
+            "anyone up for some games later tonight?",
+            "<@81011298891993088> check this out https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            ";;play https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "hahaha yeah that was great",
+            "!rank",
+            ";;skip",
+            "<@184405311681986560> np",
+            "I don't think so, the patch notes said it was fixed in the last update\nbut it still crashes for me",
+            ";;q",
+            ";; PLAY   never gonna give you up  ",
+            ";;notacommand with some args",
+            ":thinking:",
+            "ok",
+            ";;volume 50",
+            "brb",
+    };
+
+    @Setup
+    public void setup() {
+        for (String name : Arrays.asList("play", "skip", "queue", "nowplaying", "volume", "pause", "stop", "help")) {
+            CommandRegistry.registerCommand(new Command(name, name.substring(0, 1), name.substring(0, 2)) {
+                @Override
+                public int getCommandRank() {
+                    return 0;
+                }
+
+                @Override
+                public void onInvoke(@Nonnull CommandContext context) {
+                }
+
+                @Nonnull
+                @Override
+                public String help(@Nonnull Context context) {
+                    return "";
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void regexParser(Blackhole blackhole) {
+        for (String raw : CORPUS) {
+            String input;
+            Matcher mentionMatcher = MENTION_PREFIX.matcher(raw);
+            if (mentionMatcher.find() && mentionMatcher.group(2).equals(SELF_ID_STRING)) {
+                input = mentionMatcher.group(3).trim();
+            } else if (raw.startsWith(PREFIX)) {
+                input = raw.substring(PREFIX.length());
+            } else {
+                continue;
+            }
+            input = input.trim();
+            if (input.isEmpty()) {
+                continue;
+            }
+            String[] args = input.split("\\s+");
+            String commandTrigger = args[0];
+            CommandRegistry.CommandEntry entry = CommandRegistry.getCommand(commandTrigger.toLowerCase());
+            if (entry != null) {
+                blackhole.consume(Arrays.copyOfRange(args, 1, args.length));
+                blackhole.consume(input.replaceFirst(commandTrigger, "").trim());
+            }
+        }
+    }
+
+    @Benchmark
+    public void commandParser(Blackhole blackhole) {
+        for (String raw : CORPUS) {
+            int prefixEnd = CommandParser.mentionPrefixEnd(raw, SELF_ID);
+            if (prefixEnd < 0) {
+                if (!raw.startsWith(PREFIX)) {
+                    continue;
+                }
+                prefixEnd = PREFIX.length();
+            }
+            CommandParser.ParsedCommand parsed = CommandParser.parseCommand(raw, prefixEnd);
+            if (parsed != null && parsed.getEntry() != null) {
+                blackhole.consume(parsed.getArgs());
+                blackhole.consume(parsed.getRawArgs());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.feature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of formatting the i18n strings that are used for every track added / listed / announced, comparing parsing the
+ * pattern on every call (what Context#i18nFormat used to do) with reusing the parsed pattern.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class I18nFormatBenchmark {
+
+    private String loadSingleTrack;
+    private String listAddedBy;
+    private String trackAnnounce;
+
+    @Setup
+    public void setup() {
+        ResourceBundle bundle = ResourceBundle.getBundle("lang.en_US");
+        loadSingleTrack = bundle.getString("loadSingleTrack");
+        listAddedBy = bundle.getString("listAddedBy");
+        trackAnnounce = bundle.getString("trackAnnounce");
+    }
+
+    @Benchmark
+    public String loadSingleTrack_parsed() {
+        return MessageFormat.format(loadSingleTrack, "Rick Astley - Never Gonna Give You Up");
+    }
+
+    @Benchmark
+    public String loadSingleTrack_precompiled() {
+        return I18n.format(loadSingleTrack, "Rick Astley - Never Gonna Give You Up");
+    }
+
+    @Benchmark
+    public String listAddedBy_parsed() {
+        return MessageFormat.format(listAddedBy, "Darude - Sandstorm", "Napster", "03:53");
+    }
+
+    @Benchmark
+    public String listAddedBy_precompiled() {
+        return I18n.format(listAddedBy, "Darude - Sandstorm", "Napster", "03:53");
+    }
+
+    @Benchmark
+    public String trackAnnounce_parsed() {
+        return MessageFormat.format(trackAnnounce, "a-ha - Take On Me");
+    }
+
+    @Benchmark
+    public String trackAnnounce_precompiled() {
+        return I18n.format(trackAnnounce, "a-ha - Take On Me");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import org.apache.commons.lang3.SerializationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding search results, comparing java serialization (how they used to be stored) with the compact
+ * TrackListCodec format. The sizes of both are printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackListCodecBenchmark {
+
+    private static final String NAME = "Search result for: never gonna give you up";
+
+    //a search result, and a big playlist
+    @Param({"10", "500"})
+    public int size;
+
+    private AudioPlayerManager playerManager;
+    private TrackListCodec.EncodedTrackList trackList;
+    private LegacyPlaylist legacyPlaylist;
+    private byte[] compact;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        playerManager = new DefaultAudioPlayerManager();
+        YoutubeAudioSourceManager youtube = new YoutubeAudioSourceManager();
+        playerManager.registerSourceManager(youtube);
+
+        byte[][] tracks = TrackListCodec.encodeTracks(playerManager, youtubeTracks(youtube, size));
+        trackList = new TrackListCodec.EncodedTrackList(NAME, tracks, null, true);
+        legacyPlaylist = new LegacyPlaylist(trackList);
+        compact = TrackListCodec.encode(trackList);
+        serialized = SerializationUtils.serialize(legacyPlaylist);
+        System.out.printf("%n%d tracks: compact %d bytes, java serialized %d bytes%n", size, compact.length, serialized.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        playerManager.shutdown();
+    }
+
+    @Benchmark
+    public byte[] encode_serialization() {
+        return SerializationUtils.serialize(legacyPlaylist);
+    }
+
+    @Benchmark
+    public byte[] encode_compact() {
+        return TrackListCodec.encode(trackList);
+    }
+
+    @Benchmark
+    public Object decode_serialization() {
+        return SerializationUtils.deserialize(serialized);
+    }
+
+    @Benchmark
+    public Object decode_compact() throws IOException {
+        return TrackListCodec.decode(compact);
+    }
+
+    private static List<AudioTrack> youtubeTracks(YoutubeAudioSourceManager youtube, int size) {
+        Random random = new Random(42);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        String[] words = {"Never", "Gonna", "Give", "You", "Up", "Official", "Music", "Video", "Remastered", "Live",
+                "Lyrics", "HD", "Sandstorm", "Take", "On", "Me", "Feat.", "Remix"};
+        List<AudioTrack> tracks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder id = new StringBuilder();
+            for (int j = 0; j < 11; j++) {
+                id.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            StringBuilder title = new StringBuilder();
+            for (int j = 0; j < 6; j++) {
+                title.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            AudioTrackInfo info = new AudioTrackInfo(title.toString().trim(), "Artist " + random.nextInt(1000),
+                    180000 + random.nextInt(120000), id.toString(), false, "https://www.youtube.com/watch?v=" + id);
+            tracks.add(new YoutubeAudioTrack(info, youtube));
+        }
+        return tracks;
+    }
+
+    //same fields as the java serialized playlist that SearchResult used to store
+    private static class LegacyPlaylist implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final byte[][] tracks;
+        private final byte[] selectedTrack;
+        private final boolean isSearchResult;
+
+        LegacyPlaylist(TrackListCodec.EncodedTrackList trackList) {
+            this.name = trackList.name;
+            this.tracks = trackList.tracks;
+            this.selectedTrack = trackList.selectedTrack;
+            this.isSearchResult = trackList.isSearchResult;
+        }
+    }
+}
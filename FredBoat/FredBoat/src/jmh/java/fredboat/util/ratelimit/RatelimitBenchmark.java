@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.ratelimit;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many threads asking the same ratelimit whether they are allowed, either all for one hot guild or spread over many
+ * users. Compares the timestamp list based Ratelimit that was used before with the token buckets of the current one.
+ * Uses the limit of the generic user scoped command ratelimit, so after warmup most requests are denied, just like
+ * the requests of spammers that this has to withstand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class RatelimitBenchmark {
+
+    private static final long MAX_REQUESTS = 5;
+    private static final long MILLIS = 10000;
+
+    @Param({"1", "10000"})
+    public int keys;
+
+    private Ratelimit ratelimit;
+    private TimestampRatelimit timestampRatelimit;
+
+    @Setup
+    public void setup() {
+        ratelimit = new Ratelimit(Collections.emptySet(), Ratelimit.Scope.USER, MAX_REQUESTS, MILLIS, Object.class);
+        timestampRatelimit = new TimestampRatelimit(MAX_REQUESTS, MILLIS);
+    }
+
+    @Benchmark
+    public boolean tokenBucket() {
+        return ratelimit.tryAcquire(nextKey(), 1);
+    }
+
+    @Benchmark
+    public boolean timestamps() {
+        return timestampRatelimit.isAllowed(nextKey(), 1);
+    }
+
+    private long nextKey() {
+        return 81011298891993088L + ThreadLocalRandom.current().nextInt(keys);
+    }
+
+    /**
+     * The core of the previous Ratelimit implementation, kept as it was for comparison.
+     */
+    private static class TimestampRatelimit {
+
+        private final Long2ObjectOpenHashMap<Rate> limits = new Long2ObjectOpenHashMap<>();
+        private final long maxRequests;
+        private final long timeSpan;
+
+        TimestampRatelimit(long maxRequests, long milliseconds) {
+            this.maxRequests = maxRequests;
+            this.timeSpan = milliseconds;
+        }
+
+        boolean isAllowed(long id, int weight) {
+            Rate rate = limits.get(id);
+            if (rate == null)
+                rate = getOrCreateRate(id);
+
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (rate) {
+                long now = System.currentTimeMillis();
+
+                long maxTimeStampsToClear = (now - rate.lastUpdated) * maxRequests / timeSpan;
+                long cleared = 0;
+                while (rate.timeStamps.size() > 0 && rate.timeStamps.getLong(0) + timeSpan < now && cleared < maxTimeStampsToClear) {
+                    rate.timeStamps.removeLong(0);
+                    cleared++;
+                }
+
+                rate.lastUpdated = now;
+                if (rate.timeStamps.size() < maxRequests) {
+                    for (int i = 0; i < weight; i++)
+                        rate.timeStamps.add(now);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized Rate getOrCreateRate(long id) {
+            Rate result = limits.get(id);
+            if (result != null) return result;
+
+            result = new Rate();
+            limits.put(id, result);
+            return result;
+        }
+
+        private static class Rate {
+            long lastUpdated = System.currentTimeMillis();
+            final LongArrayList timeStamps = new LongArrayList();
+        }
+    }
+}
@@ -111,6 +111,24 @@ public class Config {
     private final String sshPrivateKeyFile;
     private final int forwardToPort; //port where the remote database is listening, postgres default: 5432
 
+    //write behind of entities to the database
+    private long writeBehindFlushMillis = 5000;
+    private int writeBehindBatchSize = 100;
+    private int writeBehindMaxPending = 10000;
+
+    //upper bound of cached search results kept in the database, 0 means unlimited
+    private long searchResultsMaxRows = 0;
+    //how long to wait for a search provider before asking the next one in parallel, negative to search one after another
+    private long searchHedgeDelayMillis = 1000;
+
+    //resolving the tracks of spotify playlists
+    private int spotifyResolverThreads = 4;
+    private int spotifyImportParallelism = 2;
+    private long spotifySearchesPerSecond = 5;
+
+    //merge plain text messages sent to the same channel within this window into one message, 0 to disable
+    private long messageCoalesceMillis = 0;
+
     //AudioManager Stuff
     private Boolean youtubeAudio;
     private Boolean soundcloudAudio;
@@ -263,6 +281,16 @@ public class Config {
             sshPrivateKeyFile = (String) creds.getOrDefault("sshPrivateKeyFile", "database.ppk");
             forwardToPort = (int) creds.getOrDefault("forwardToPort", 5432);
 
+            writeBehindFlushMillis = ((Number) config.getOrDefault("writeBehindFlushMillis", writeBehindFlushMillis)).longValue();
+            writeBehindBatchSize = (int) config.getOrDefault("writeBehindBatchSize", writeBehindBatchSize);
+            writeBehindMaxPending = (int) config.getOrDefault("writeBehindMaxPending", writeBehindMaxPending);
+            searchResultsMaxRows = ((Number) config.getOrDefault("searchResultsMaxRows", searchResultsMaxRows)).longValue();
+            searchHedgeDelayMillis = ((Number) config.getOrDefault("searchHedgeDelayMillis", searchHedgeDelayMillis)).longValue();
+            spotifyResolverThreads = (int) config.getOrDefault("spotifyResolverThreads", spotifyResolverThreads);
+            spotifyImportParallelism = (int) config.getOrDefault("spotifyImportParallelism", spotifyImportParallelism);
+            spotifySearchesPerSecond = ((Number) config.getOrDefault("spotifySearchesPerSecond", spotifySearchesPerSecond)).longValue();
+            messageCoalesceMillis = ((Number) config.getOrDefault("messageCoalesceMillis", messageCoalesceMillis)).longValue();
+
             //Modularise audiomanagers; load from "config.yaml"
 
             youtubeAudio = (Boolean) config.getOrDefault("enableYouTube", true);
@@ -467,6 +495,42 @@ public class Config {
         return forwardToPort;
     }
 
+    public long getWriteBehindFlushMillis() {
+        return writeBehindFlushMillis;
+    }
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public int getWriteBehindMaxPending() {
+        return writeBehindMaxPending;
+    }
+
+    public long getSearchResultsMaxRows() {
+        return searchResultsMaxRows;
+    }
+
+    public long getSearchHedgeDelayMillis() {
+        return searchHedgeDelayMillis;
+    }
+
+    public int getSpotifyResolverThreads() {
+        return spotifyResolverThreads;
+    }
+
+    public int getSpotifyImportParallelism() {
+        return spotifyImportParallelism;
+    }
+
+    public long getSpotifySearchesPerSecond() {
+        return spotifySearchesPerSecond;
+    }
+
+    public long getMessageCoalesceMillis() {
+        return messageCoalesceMillis;
+    }
+
     public List<LavalinkHost> getLavalinkHosts() {
         return lavalinkHosts;
     }
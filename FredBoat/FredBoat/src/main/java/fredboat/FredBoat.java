@@ -29,14 +29,22 @@ import com.sedmelluq.discord.lavaplayer.tools.PlayerLibrary;
 import fredboat.agent.CarbonitexAgent;
 import fredboat.agent.DBConnectionWatchdogAgent;
 import fredboat.agent.FredBoatAgent;
+import fredboat.agent.RatelimitSweepAgent;
+import fredboat.agent.SearchResultExpiryAgent;
 import fredboat.agent.StatsAgent;
+import fredboat.agent.WriteBehindAgent;
 import fredboat.api.API;
 import fredboat.audio.player.LavalinkManager;
 import fredboat.audio.queue.MusicPersistenceHandler;
+import fredboat.commandmeta.CommandExecutors;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.commandmeta.init.MainCommandInitializer;
 import fredboat.commandmeta.init.MusicCommandInitializer;
 import fredboat.db.DatabaseManager;
+import fredboat.db.EntityReader;
+import fredboat.db.EntityRepository;
+import fredboat.db.EntityWriter;
 import fredboat.event.EventListenerBoat;
 import fredboat.feature.I18n;
 import fredboat.feature.metrics.Metrics;
@@ -140,6 +148,21 @@ public abstract class FredBoat {
             dbManager = DatabaseManager.sqlite();
             dbManager.startup();
         }
+        Metrics.instance().threadPoolCollector.addPool("database-executor", EntityRepository.getExecutor());
+        Metrics.instance().threadPoolCollector.addPool("database-background", EntityRepository.getBackgroundExecutor());
+        FredBoatAgent.start(new WriteBehindAgent(EntityWriter.getWriteBehind(), Config.CONFIG.getWriteBehindFlushMillis()));
+        if (dbManager != null) {
+            FredBoatAgent.start(new SearchResultExpiryAgent(Config.CONFIG.getSearchResultsMaxRows()));
+
+            //before any shard is up, so no message gets parsed without knowing the custom prefix of its guild
+            try {
+                PrefixRegistry.updateAll(EntityReader.loadCustomPrefixes());
+            } catch (Exception e) {
+                log.error("Could not load custom prefixes, they will be picked up as guild configs get loaded", e);
+            }
+        }
+
+        FredBoatAgent.start(new RatelimitSweepAgent());
 
         //Initialise event listeners
         mainEventListener = new EventListenerBoat();
@@ -314,7 +337,15 @@ public abstract class FredBoat {
             fb.getJda().shutdown();
         }
 
+        try {
+            EntityWriter.getWriteBehind().flushAndWait();
+        } catch (Exception e) {
+            log.error("Failed to flush the write behind queue.", e);
+        }
+
         executor.shutdown();
+        CommandExecutors.shutdown();
+        EntityRepository.shutdown();
         dbManager.shutdown();
     };
 
@@ -31,6 +31,7 @@ import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.player.LavalinkManager;
 import fredboat.audio.player.PlayerRegistry;
 import fredboat.audio.queue.MusicPersistenceHandler;
+import fredboat.db.EntityPreloader;
 import fredboat.event.EventListenerBoat;
 import fredboat.event.EventLogger;
 import fredboat.feature.metrics.Metrics;
@@ -116,6 +117,9 @@ public class FredBoatShard extends FredBoat {
         log.info("Received ready event for {}", readyEvent.getJDA().getShardInfo().toString());
         jdaEntityCountsShard.count(Collections.singletonList(this), true);//jda finished loading, do a single count to init values
 
+        //warm up the caches of guild configs and permissions in the background
+        EntityPreloader.preloadGuilds(readyEvent.getJDA());
+
 
         if (Config.CONFIG.getNumShards() <= 10) {
             //the current implementation of music persistence is not a good idea on big bots
@@ -0,0 +1,57 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.agent;
+
+import fredboat.feature.metrics.Metrics;
+import fredboat.util.ratelimit.Ratelimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every user and guild that ever ran a command gets a bucket in each ratelimit it hit. Once a bucket has filled up
+ * again it holds no information anymore, so this agent removes those to keep the ratelimits from growing forever.
+ */
+public class RatelimitSweepAgent extends FredBoatAgent {
+
+    private static final Logger log = LoggerFactory.getLogger(RatelimitSweepAgent.class);
+
+    public RatelimitSweepAgent() {
+        super("ratelimit-sweep", 5, TimeUnit.MINUTES);
+    }
+
+    @Override
+    protected void doRun() {
+        try {
+            int left = Ratelimiter.sweepIdle();
+            Metrics.ratelimitBuckets.set(left);
+            log.debug("Swept idle ratelimit buckets, {} left", left);
+        } catch (Exception e) {
+            log.error("Caught an exception while sweeping ratelimit buckets", e);
+        }
+    }
+}
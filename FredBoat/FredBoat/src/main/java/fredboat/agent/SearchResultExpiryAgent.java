@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.agent;
+
+import fredboat.audio.source.SpotifyPlaylistSourceManager;
+import fredboat.db.EntityRepository;
+import fredboat.db.entity.ResolvedSpotifyPlaylist;
+import fredboat.db.entity.SearchResult;
+import fredboat.feature.metrics.Metrics;
+import fredboat.util.rest.SearchUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the search_results table from growing forever. Rows older than the longest max age any lookup uses can never
+ * be hit again and get deleted; if a max row count is configured, the least recently used rows are evicted on top of
+ * that. Resolved spotify playlists past their cache duration are deleted too. Deletes happen in small batches with
+ * pauses in between, and a run is skipped while the database executor is busy, so this never competes with user
+ * facing queries.
+ */
+public class SearchResultExpiryAgent extends FredBoatAgent {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchResultExpiryAgent.class);
+
+    private static final int BATCH_SIZE = 1000;
+    private static final long BATCH_PAUSE_MILLIS = 500;
+    private static final int MAX_BATCHES_PER_RUN = 100;
+
+    private final long maxRows;
+
+    /**
+     * @param maxRows evict the least recently used search results above this amount of rows, 0 for unlimited
+     */
+    public SearchResultExpiryAgent(long maxRows) {
+        super("search-result-expiry", 10, TimeUnit.MINUTES);
+        this.maxRows = maxRows;
+    }
+
+    @Override
+    protected void doRun() {
+        try {
+            if (!EntityRepository.getExecutor().getQueue().isEmpty()) {
+                log.debug("Database executor is busy, skipping search result expiry run");
+                return;
+            }
+            expire();
+            evict();
+            updateMetrics();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Caught an exception while expiring search results", e);
+        }
+    }
+
+    private void expire() throws InterruptedException {
+        long maxAge = Math.max(SearchUtil.DEFAULT_CACHE_MAX_AGE, SpotifyPlaylistSourceManager.CACHE_DURATION);
+        long cutoff = System.currentTimeMillis() - maxAge;
+
+        long total = 0;
+        for (int i = 0; i < MAX_BATCHES_PER_RUN; i++) {
+            int deleted = SearchResult.deleteOlderThan(cutoff, BATCH_SIZE);
+            total += deleted;
+            Metrics.searchResultsDeleted.labels("expired").inc(deleted);
+            if (deleted < BATCH_SIZE) break;
+            Thread.sleep(BATCH_PAUSE_MILLIS);
+        }
+        if (total > 0) {
+            log.info("Deleted {} expired search results", total);
+        }
+
+        int playlists = ResolvedSpotifyPlaylist.deleteOlderThan(
+                System.currentTimeMillis() - SpotifyPlaylistSourceManager.CACHE_DURATION);
+        if (playlists > 0) {
+            log.info("Deleted {} expired resolved spotify playlists", playlists);
+        }
+    }
+
+    private void evict() throws InterruptedException {
+        if (maxRows <= 0) return;
+
+        long excess = SearchResult.estimateRows() - maxRows;
+        long total = 0;
+        for (int i = 0; i < MAX_BATCHES_PER_RUN && excess > 0; i++) {
+            int deleted = SearchResult.deleteLeastRecentlyUsed((int) Math.min(excess, BATCH_SIZE));
+            if (deleted == 0) break;
+            excess -= deleted;
+            total += deleted;
+            Metrics.searchResultsDeleted.labels("evicted").inc(deleted);
+            Thread.sleep(BATCH_PAUSE_MILLIS);
+        }
+        if (total > 0) {
+            log.info("Evicted {} least recently used search results", total);
+        }
+    }
+
+    private void updateMetrics() {
+        Metrics.searchResultsRows.set(SearchResult.estimateRows());
+        long bytes = SearchResult.tableSizeBytes();
+        if (bytes >= 0) {
+            Metrics.searchResultsTableBytes.set(bytes);
+        }
+    }
+}
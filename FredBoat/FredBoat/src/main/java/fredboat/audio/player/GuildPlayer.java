@@ -42,6 +42,7 @@ import fredboat.db.EntityReader;
 import fredboat.db.entity.GuildConfig;
 import fredboat.feature.I18n;
 import fredboat.messaging.CentralMessaging;
+import fredboat.messaging.MessagePriority;
 import fredboat.perms.PermissionLevel;
 import fredboat.perms.PermsUtil;
 import net.dv8tion.jda.core.JDA;
@@ -50,7 +51,9 @@ import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.VoiceChannel;
+import net.dv8tion.jda.core.exceptions.ErrorResponseException;
 import net.dv8tion.jda.core.managers.AudioManager;
+import net.dv8tion.jda.core.requests.ErrorResponse;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -62,6 +65,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class GuildPlayer extends AbstractPlayer {
@@ -74,6 +79,14 @@ public class GuildPlayer extends AbstractPlayer {
 
     private final AudioLoader audioLoader;
 
+    private static final long ANNOUNCE_EDIT_DELAY_MILLIS = 1000;
+    //the announcement message that is being edited when track_announce_edit is turned on
+    private final Object announceLock = new Object();
+    private long announceChannelId = 0; //guarded by announceLock
+    private long announceMessageId = 0; //guarded by announceLock
+    @Nullable
+    private ScheduledFuture<?> pendingAnnouncement; //guarded by announceLock
+
     @SuppressWarnings("LeakingThisInConstructor")
     public GuildPlayer(Guild guild) {
         super(guild.getId());
@@ -94,22 +107,77 @@ public class GuildPlayer extends AbstractPlayer {
     }
 
     private void announceTrack(AudioTrackContext atc) {
-        if (getRepeatMode() != RepeatMode.SINGLE && isTrackAnnounceEnabled() && !isPaused()) {
+        if (getRepeatMode() == RepeatMode.SINGLE) {
+            return;
+        }
+        GuildConfig config = getGuildConfig();
+        if (config != null && config.isTrackAnnounce() && !isPaused()) {
             TextChannel activeTextChannel = getActiveTextChannel();
             if (activeTextChannel != null) {
-                CentralMessaging.sendMessage(activeTextChannel,
-                        atc.i18nFormat("trackAnnounce", atc.getEffectiveTitle()));
+                String announcement = atc.i18nFormat("trackAnnounce", atc.getEffectiveTitle());
+                if (config.isTrackAnnounceEdit()) {
+                    scheduleAnnouncementEdit(activeTextChannel, announcement);
+                } else {
+                    postAnnouncement(activeTextChannel, announcement);
+                }
             }
         }
     }
 
+    //wait a moment before editing, so that skipping through a bunch of tracks results in a single edit
+    private void scheduleAnnouncementEdit(TextChannel channel, String announcement) {
+        synchronized (announceLock) {
+            if (pendingAnnouncement != null) {
+                pendingAnnouncement.cancel(false);
+            }
+            pendingAnnouncement = CentralMessaging.restService.schedule(() -> editAnnouncement(channel, announcement),
+                    ANNOUNCE_EDIT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void editAnnouncement(TextChannel channel, String announcement) {
+        long messageId;
+        synchronized (announceLock) {
+            messageId = announceChannelId == channel.getIdLong() ? announceMessageId : 0;
+        }
+        if (messageId == 0) {
+            postAnnouncement(channel, announcement);
+            return;
+        }
+
+        CentralMessaging.editMessage(channel, messageId, CentralMessaging.from(announcement), null,
+                t -> {
+                    if (t instanceof ErrorResponseException
+                            && ((ErrorResponseException) t).getErrorResponse() == ErrorResponse.UNKNOWN_MESSAGE) {
+                        //someone deleted our announcement, start over with a fresh one
+                        postAnnouncement(channel, announcement);
+                    } else {
+                        CentralMessaging.getJdaRestActionFailureHandler(String.format(
+                                "Could not edit track announcement %s in guild %s", messageId, guildId)).accept(t);
+                    }
+                });
+    }
+
+    private void postAnnouncement(TextChannel channel, String announcement) {
+        //an announcement still waiting in a ratelimited channel is outdated by the time the next track starts
+        CentralMessaging.sendMessage(channel, CentralMessaging.from(announcement),
+                MessagePriority.ANNOUNCEMENT, "trackAnnounce",
+                m -> {
+                    synchronized (announceLock) {
+                        announceChannelId = channel.getIdLong();
+                        announceMessageId = m.getIdLong();
+                    }
+                }, null);
+    }
+
     private void handleError(Throwable t) {
         if (!(t instanceof MessagingException)) {
             log.error("Guild player error", t);
         }
         TextChannel textChannel = getActiveTextChannel();
         if (textChannel != null) {
-            CentralMessaging.sendMessage(textChannel, "Something went wrong!\n" + t.getMessage());
+            CentralMessaging.sendMessage(textChannel, "Something went wrong!\n" + t.getMessage(),
+                    MessagePriority.ERROR, null);
         }
     }
 
@@ -438,14 +506,13 @@ public class GuildPlayer extends AbstractPlayer {
         super.onTrackStart(player, track);
     }
 
-    private boolean isTrackAnnounceEnabled() {
-        boolean enabled = false;
+    @Nullable
+    private GuildConfig getGuildConfig() {
         try {
-            GuildConfig config = EntityReader.getGuildConfig(Long.toString(guildId));
-            enabled = config.isTrackAnnounce();
-        } catch (DatabaseNotReadyException ignored) {}
-
-        return enabled;
+            return EntityReader.getGuildConfig(Long.toString(guildId));
+        } catch (DatabaseNotReadyException ignored) {
+            return null;
+        }
     }
 
     public JDA getJda() {
@@ -454,6 +521,11 @@ public class GuildPlayer extends AbstractPlayer {
 
     @Override
     void destroy() {
+        synchronized (announceLock) {
+            if (pendingAnnouncement != null) {
+                pendingAnnouncement.cancel(false);
+            }
+        }
         audioTrackProvider.clear();
         super.destroy();
         log.info("Player for " + guildId + " was destroyed.");
@@ -59,12 +59,12 @@ public class PlayerRegistry {
     }
 
     public static GuildPlayer getOrCreate(JDA jda, long guildId) {
-        GuildPlayer player = instance().REGISTRY.get(guildId);
-        if (player == null) {
-            player = new GuildPlayer(jda.getGuildById(guildId));
-            player.setVolume(DEFAULT_VOLUME);
-            instance().REGISTRY.put(guildId, player);
-        }
+        //atomic, so commands of a guild running on different threads can't end up with players of their own
+        GuildPlayer player = instance().REGISTRY.computeIfAbsent(guildId, id -> {
+            GuildPlayer created = new GuildPlayer(jda.getGuildById(id));
+            created.setVolume(DEFAULT_VOLUME);
+            return created;
+        });
 
         // Attempt to set the player as a sending handler. Important after a shard revive
         if (!LavalinkManager.ins.isEnabled() && jda.getGuildById(guildId) != null) {
@@ -174,7 +174,7 @@ public class AudioLoader implements AudioLoadResultHandler {
             } else {
 
                 if (!context.isQuiet()) {
-                    context.reply(gplayer.isPlaying() ?
+                    context.replyCoalesced(gplayer.isPlaying() ?
                             context.i18nFormat("loadSingleTrack", at.getInfo().title)
                             :
                             context.i18nFormat("loadSingleTrackAndPlay", at.getInfo().title)
@@ -201,7 +201,7 @@ public class AudioLoader implements AudioLoadResultHandler {
         Metrics.tracksLoaded.inc(ap.getTracks() == null ? 0 : ap.getTracks().size());
         try {
             if(context.isSplit()){
-                context.reply(context.i18n("loadPlaySplitListFail"));
+                context.replyCoalesced(context.i18n("loadPlaySplitListFail"));
                 loadNextAsync();
                 return;
             }
@@ -211,7 +211,13 @@ public class AudioLoader implements AudioLoadResultHandler {
                 toAdd.add(new AudioTrackContext(at, context.getMember()));
             }
             trackProvider.addAll(toAdd);
-            context.reply(context.i18nFormat("loadListSuccess", ap.getTracks().size(), ap.getName()));
+            context.replyCoalesced(context.i18nFormat("loadListSuccess", ap.getTracks().size(), ap.getName()));
+            if (ap instanceof PlaylistImportSourceManager.ImportedPlaylist) {
+                int failed = ((PlaylistImportSourceManager.ImportedPlaylist) ap).getFailedEntries();
+                if (failed > 0) {
+                    context.replyCoalesced(context.i18nFormat("loadListEntriesFailed", failed));
+                }
+            }
             if (!gplayer.isPaused()) {
                 gplayer.play();
             }
@@ -224,7 +230,7 @@ public class AudioLoader implements AudioLoadResultHandler {
     @Override
     public void noMatches() {
         try {
-            context.reply(context.i18nFormat("loadNoMatches", context.identifier));
+            context.replyCoalesced(context.i18nFormat("loadNoMatches", context.identifier));
         } catch (Throwable th) {
             handleThrowable(context, th);
         }
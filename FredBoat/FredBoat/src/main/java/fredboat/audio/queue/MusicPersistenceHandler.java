@@ -54,7 +54,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Map;
 
@@ -144,7 +143,7 @@ public class MusicPersistenceHandler {
                 } catch (IOException ex) {
                     if (activeTextChannel != null) {
                         CentralMessaging.sendMessage(activeTextChannel,
-                                MessageFormat.format(I18n.get(player.getGuild()).getString("shutdownPersistenceFail"),
+                                I18n.format(I18n.get(player.getGuild()).getString("shutdownPersistenceFail"),
                                         ex.getMessage()));
                     }
                 }
@@ -261,7 +260,7 @@ public class MusicPersistenceHandler {
 
                 player.setPause(isPaused);
                 if (tc != null) {
-                    CentralMessaging.sendMessage(tc, MessageFormat.format(I18n.get(player.getGuild()).getString("reloadSuccess"), sources.length()));
+                    CentralMessaging.sendMessage(tc, I18n.format(I18n.get(player.getGuild()).getString("reloadSuccess"), sources.length()));
                 }
             } catch (Exception ex) {
                 log.error("Error when loading persistence file", ex);
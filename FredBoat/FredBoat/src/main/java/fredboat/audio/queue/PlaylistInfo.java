@@ -24,6 +24,8 @@
 
 package fredboat.audio.queue;
 
+import javax.annotation.Nullable;
+
 /**
  * Created by napster on 16.03.17.
  * <p>
@@ -39,10 +41,19 @@ public class PlaylistInfo {
 
     private Source source;
 
+    //identifies the version of the playlist, if the source has such a thing
+    @Nullable
+    private String snapshotId;
+
     public PlaylistInfo(int totalTracks, String name, Source source) {
+        this(totalTracks, name, source, null);
+    }
+
+    public PlaylistInfo(int totalTracks, String name, Source source, @Nullable String snapshotId) {
         this.totalTracks = totalTracks;
         this.name = name;
         this.source = source;
+        this.snapshotId = snapshotId;
     }
 
     public int getTotalTracks() {
@@ -68,4 +79,13 @@ public class PlaylistInfo {
     public void setSource(Source source) {
         this.source = source;
     }
+
+    @Nullable
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    public void setSnapshotId(@Nullable String snapshotId) {
+        this.snapshotId = snapshotId;
+    }
 }
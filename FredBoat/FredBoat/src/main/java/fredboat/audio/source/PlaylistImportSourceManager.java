@@ -33,16 +33,23 @@ import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.*;
 import fredboat.audio.player.AbstractPlayer;
 import fredboat.audio.queue.PlaylistInfo;
+import fredboat.util.TrackListCodec;
+import fredboat.util.rest.CircuitBreaker;
 import fredboat.util.rest.Http;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Matcher;
 
 public class PlaylistImportSourceManager implements AudioSourceManager, PlaylistImporter {
@@ -52,6 +59,11 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
     private static final AudioPlayerManager PRIVATE_MANAGER = AbstractPlayer
             .registerSourceManagers(new DefaultAudioPlayerManager());
 
+    //entries of a single paste loading at the same time
+    private static final int PARALLELISM = 8;
+    //after this the import is completed with what has been loaded so far
+    private static final long IMPORT_TIMEOUT_MINUTES = 5;
+
     @Override
     public String getSourceName() {
         return "playlist_import";
@@ -69,25 +81,25 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         if (pasteId == null || "".equals(pasteId) || !PasteServiceConstants.PASTE_SERVICE_URLS.containsKey(serviceName)) {
             return null;
         }
-        List<String> trackIds = loadAndParseTrackIds(serviceName, pasteId);
-
-        PasteServiceAudioResultHandler handler = new PasteServiceAudioResultHandler();
-        Future<Void> lastFuture = null;
-        for (String id : trackIds) {
-            lastFuture = PRIVATE_MANAGER.loadItemOrdered(handler, id, handler);
-        }
-
-        if (lastFuture == null) {
+        List<TrackListCodec.ExportEntry> entries = loadAndParseEntries(serviceName, pasteId);
+        if (entries.isEmpty()) {
             return null;
         }
 
+        //lavaplayer expects the item to be returned from here, so this is the only place the loader thread waits
+        PasteImport pasteImport = new PasteImport(pasteId, entries);
+        ImportedPlaylist playlist;
         try {
-            lastFuture.get();
-        } catch (InterruptedException | ExecutionException ex) {
+            playlist = pasteImport.start().get(IMPORT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (TimeoutException ex) {
+            playlist = pasteImport.abort();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FriendlyException("Failed loading playlist item", FriendlyException.Severity.FAULT, ex);
+        } catch (ExecutionException ex) {
             throw new FriendlyException("Failed loading playlist item", FriendlyException.Severity.FAULT, ex);
         }
-
-        return new BasicAudioPlaylist(pasteId, handler.getLoadedTracks(), null, false);
+        return playlist;
     }
 
     @Override
@@ -150,21 +162,36 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         return result;
     }
 
-    private List<String> loadAndParseTrackIds(String serviceName, String pasteId) {
+    /**
+     * @return the entries of the paste. Entries of a plain paste only have an identifier to be loaded, entries of a
+     * queue export created by the export command additionally carry the encoded track.
+     */
+    private List<TrackListCodec.ExportEntry> loadAndParseEntries(String serviceName, String pasteId) {
         String response;
         try {
-            response = Http.get(PasteServiceConstants.PASTE_SERVICE_URLS.get(serviceName) + pasteId).asString();
+            Http.SimpleRequest request = Http.get(PasteServiceConstants.PASTE_SERVICE_URLS.get(serviceName) + pasteId);
+            response = CircuitBreaker.forName("paste-" + serviceName).execute(request::asStringChecked,
+                    () -> new IOException("Not calling " + serviceName + ", its circuit breaker is open"));
         } catch (IOException ex) {
             throw new FriendlyException(
                     "Couldn't load playlist. Either " + serviceName + " is down or the playlist does not exist.",
                     FriendlyException.Severity.FAULT, ex);
         }
 
+        if (TrackListCodec.isExport(response)) {
+            try {
+                return TrackListCodec.decodeExport(response);
+            } catch (IOException ex) {
+                throw new FriendlyException("Couldn't read the exported queue, the paste seems to be damaged.",
+                        FriendlyException.Severity.COMMON, ex);
+            }
+        }
+
         String[] unfiltered = response.split("\\s");
-        ArrayList<String> filtered = new ArrayList<>();
+        ArrayList<TrackListCodec.ExportEntry> filtered = new ArrayList<>();
         for (String str : unfiltered) {
             if (!str.equals("")) {
-                filtered.add(str);
+                filtered.add(new TrackListCodec.ExportEntry(str, null));
             }
         }
         return filtered;
@@ -181,43 +208,171 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         String pasteId = pasteData[1];
         if (serviceName == null || "".equals(serviceName) || pasteId == null || "".equals(pasteId)) return null;
 
-        List<String> trackIds = loadAndParseTrackIds(serviceName, pasteId);
+        List<TrackListCodec.ExportEntry> entries = loadAndParseEntries(serviceName, pasteId);
 
-        return new PlaylistInfo(trackIds.size(), pasteId, PlaylistInfo.Source.PASTESERVICE);
+        return new PlaylistInfo(entries.size(), pasteId, PlaylistInfo.Source.PASTESERVICE);
     }
 
-    private class PasteServiceAudioResultHandler implements AudioLoadResultHandler {
+    /**
+     * A playlist imported from a paste service, knowing how many of its entries could not be loaded.
+     */
+    public static class ImportedPlaylist extends BasicAudioPlaylist {
 
-        private final List<AudioTrack> loadedTracks;
+        private final int failedEntries;
 
-        private PasteServiceAudioResultHandler() {
-            this.loadedTracks = new ArrayList<>();
+        public ImportedPlaylist(String name, List<AudioTrack> tracks, int failedEntries) {
+            super(name, tracks, null, false);
+            this.failedEntries = failedEntries;
         }
 
-        @Override
-        public void trackLoaded(AudioTrack track) {
-            loadedTracks.add(track);
+        public int getFailedEntries() {
+            return failedEntries;
         }
+    }
 
-        @Override
-        public void playlistLoaded(AudioPlaylist playlist) {
-            log.info("Attempt to load a playlist recursively, skipping");
+    /**
+     * Loads the entries of a paste with up to {@link #PARALLELISM} of them loading at the same time. Each finished
+     * entry starts loading the next one, and the tracks end up in the order of the paste no matter in which order
+     * they finish. Entries that carry an encoded track are decoded directly, only the ones that fail to decode are
+     * loaded by their identifier.
+     */
+    private static class PasteImport {
+
+        private final String pasteId;
+        private final int size;
+        //indices of the entries that need to be loaded by their identifier
+        private final List<Integer> toLoad = new ArrayList<>();
+        private final List<String> ids = new ArrayList<>();
+        private final AtomicReferenceArray<AudioTrack> tracks;
+        private final AtomicInteger nextEntry = new AtomicInteger(0);
+        private final AtomicInteger remaining;
+        private final AtomicInteger failed = new AtomicInteger(0);
+        private final CompletableFuture<ImportedPlaylist> result = new CompletableFuture<>();
+        //set once the import ran out of time, no further entries are started after that
+        private volatile boolean aborted = false;
+
+        private PasteImport(String pasteId, List<TrackListCodec.ExportEntry> entries) {
+            this.pasteId = pasteId;
+            this.size = entries.size();
+            this.tracks = new AtomicReferenceArray<>(size);
+            this.remaining = new AtomicInteger(size);
+            for (int i = 0; i < size; i++) {
+                TrackListCodec.ExportEntry entry = entries.get(i);
+                ids.add(entry.uri);
+                AudioTrack decoded = TrackListCodec.decodeTrack(PRIVATE_MANAGER, entry.track);
+                if (decoded != null) {
+                    tracks.set(i, decoded);
+                    remaining.decrementAndGet();
+                } else if (entry.uri != null) {
+                    toLoad.add(i);
+                } else {
+                    //neither decodable nor loadable
+                    failed.incrementAndGet();
+                    remaining.decrementAndGet();
+                }
+            }
         }
 
-        @Override
-        public void noMatches() {
-            // ignore
+        private CompletableFuture<ImportedPlaylist> start() {
+            if (remaining.get() == 0) {
+                finish();
+            }
+            for (int i = 0; i < Math.min(PARALLELISM, toLoad.size()); i++) {
+                loadNext();
+            }
+            return result;
         }
 
-        @Override
-        public void loadFailed(FriendlyException exception) {
-            log.debug("Failed loading track provided via the paste service", exception);
+        private void loadNext() {
+            if (aborted) {
+                return;
+            }
+            int next = nextEntry.getAndIncrement();
+            if (next >= toLoad.size()) {
+                return;
+            }
+            int index = toLoad.get(next);
+            PRIVATE_MANAGER.loadItem(ids.get(index), new EntryHandler(index));
         }
 
-        public List<AudioTrack> getLoadedTracks() {
-            return loadedTracks;
+        private void done(int index, @Nullable AudioTrack track) {
+            if (track != null) {
+                tracks.set(index, track);
+            } else {
+                failed.incrementAndGet();
+            }
+            loadNext();
+
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            List<AudioTrack> loaded = loadedTracks();
+            if (failed.get() > 0) {
+                log.info("Failed to load {} of {} entries of paste {}", failed.get(), size, pasteId);
+            }
+            result.complete(new ImportedPlaylist(pasteId, loaded, failed.get()));
         }
 
+        /**
+         * Stop starting further entries and complete the import with the tracks loaded so far, counting all other
+         * entries as failed. Entries still loading are left to finish on their own, their tracks are dropped.
+         */
+        private ImportedPlaylist abort() {
+            aborted = true;
+            List<AudioTrack> loaded = loadedTracks();
+            int failedEntries = size - loaded.size();
+            ImportedPlaylist partial = new ImportedPlaylist(pasteId, loaded, failedEntries);
+            if (!result.complete(partial)) {
+                //finished right before we gave up on it
+                return result.join();
+            }
+            log.info("Import of paste {} timed out, failed to load {} of {} entries", pasteId, failedEntries, size);
+            return partial;
+        }
+
+        private List<AudioTrack> loadedTracks() {
+            List<AudioTrack> loaded = new ArrayList<>(size);
+            for (int i = 0; i < tracks.length(); i++) {
+                if (tracks.get(i) != null) {
+                    loaded.add(tracks.get(i));
+                }
+            }
+            return loaded;
+        }
+
+        private class EntryHandler implements AudioLoadResultHandler {
+
+            private final int index;
+
+            private EntryHandler(int index) {
+                this.index = index;
+            }
+
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                done(index, track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                log.info("Attempt to load a playlist recursively, skipping");
+                done(index, null);
+            }
+
+            @Override
+            public void noMatches() {
+                done(index, null);
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                log.debug("Failed loading track provided via the paste service", exception);
+                done(index, null);
+            }
+        }
     }
 
 }
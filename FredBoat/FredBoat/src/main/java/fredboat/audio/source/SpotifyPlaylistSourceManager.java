@@ -28,12 +28,17 @@ import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioItem;
-import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioReference;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import fredboat.Config;
 import fredboat.audio.queue.PlaylistInfo;
+import fredboat.db.DatabaseNotReadyException;
+import fredboat.db.EntityRepository;
+import fredboat.db.entity.ResolvedSpotifyPlaylist;
+import fredboat.feature.metrics.Metrics;
+import fredboat.util.Tuple2;
 import fredboat.util.rest.SearchUtil;
 import fredboat.util.rest.SpotifyAPIWrapper;
 import org.slf4j.Logger;
@@ -42,13 +47,14 @@ import org.slf4j.LoggerFactory;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -71,13 +77,12 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
     //https://regex101.com/r/AEWyxi/3
     private static final Pattern PLAYLIST_PATTERN = Pattern.compile("https?://.*\\.spotify\\.com/user/(.*)/playlist/([^?/\\s]*)");
 
-    //Take care when deciding on upping the core pool size: The threads may hog database connections
-    // (for selfhosters running on the SQLite db) when loading an uncached playlist.
-    // Upping the threads will also fire search requests more aggressively against Youtube which is probably better avoided.
-    public static ScheduledExecutorService loader = Executors.newScheduledThreadPool(1);
-
-    private static final List<SearchUtil.SearchProvider> searchProviders
-            = Arrays.asList(SearchUtil.SearchProvider.YOUTUBE, SearchUtil.SearchProvider.SOUNDCLOUD);
+    //Take care when deciding on upping the parallelism or the search budget: Searches not answered by the caches
+    // are fired against Youtube, and getting flagged by them is probably better avoided.
+    public static final SpotifyTrackResolver resolver = new SpotifyTrackResolver(
+            Config.CONFIG.getSpotifyResolverThreads(),
+            Config.CONFIG.getSpotifyImportParallelism(),
+            Config.CONFIG.getSpotifySearchesPerSecond());
 
     @Override
     public String getSourceName() {
@@ -105,74 +110,91 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
         String playlistName = plData.getName();
         if (playlistName == null || "".equals(playlistName)) playlistName = "Spotify Playlist";
 
-        final List<String> trackListSearchTerms;
+        int tracksTotal = plData.getTotalTracks();
+        log.info("Retrieved playlist data for " + playlistName + " from Spotify, loading up " + tracksTotal + " tracks");
 
+        //an unchanged playlist can be served from the cache right away, a changed one only needs its new tracks searched.
+        //tracks whose search failed are not cached, so a cached playlist that doesn't cover all of its tracks is treated
+        //like a changed one, searching those again
+        String snapshotId = plData.getSnapshotId();
+        ResolvedSpotifyPlaylist cached = findResolved(spotifyListId);
+        Map<String, AudioTrack> known = new HashMap<>();
+        if (cached != null) {
+            List<Tuple2<String, AudioTrack>> resolved = cached.decode(manager);
+            if (snapshotId != null && snapshotId.equals(cached.getSnapshotId())
+                    && resolved.size() >= tracksTotal && resolved.stream().anyMatch(entry -> entry.b != null)) {
+                Metrics.spotifyPlaylistCache.labels("hit").inc();
+                List<AudioTrack> tracks = new ArrayList<>(resolved.size());
+                for (Tuple2<String, AudioTrack> entry : resolved) {
+                    if (entry.b != null) tracks.add(entry.b);
+                }
+                log.info("Loaded " + tracks.size() + " tracks of unchanged playlist " + playlistName + " from cache");
+                return new BasicAudioPlaylist(playlistName, tracks, null, true);
+            }
+            for (Tuple2<String, AudioTrack> entry : resolved) {
+                known.put(entry.a, entry.b);
+            }
+            Metrics.spotifyPlaylistCache.labels("changed").inc();
+        } else {
+            Metrics.spotifyPlaylistCache.labels("miss").inc();
+        }
+
+        //start resolving the tracks of each page as soon as it arrives
+        SpotifyTrackResolver.Job job = resolver.newJob(playlistName);
+        CompletableFuture<Void> fetching = saw.fetchPlaylistTracksSearchTerms(spotifyUser, spotifyListId, tracksTotal, (position, searchTerm) -> {
+            //remove all punctuation
+            String query = searchTerm.replaceAll(SearchUtil.PUNCTUATION_REGEX, "");
+            if (known.containsKey(query)) {
+                AudioTrack track = known.get(query);
+                job.addResolved(position, query, track == null ? null : track.makeClone());
+            } else {
+                job.add(position, query);
+            }
+        });
         try {
-            trackListSearchTerms = saw.getPlaylistTracksSearchTermsBlocking(spotifyUser, spotifyListId);
-        } catch (Exception e) {
+            fetching.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fetching.cancel(true);
+            job.cancel();
+            return new BasicAudioPlaylist(playlistName, Collections.emptyList(), null, true);
+        } catch (ExecutionException e) {
+            job.cancel();
             log.warn("Could not retrieve tracks for playlist " + spotifyListId + " of user " + spotifyUser, e);
             throw new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.", FriendlyException.Severity.COMMON, e);
         }
-        int tracksTotal = plData.getTotalTracks();
-        log.info("Retrieved playlist data for " + playlistName + " from Spotify, loading up " + tracksTotal + " tracks");
-
-        //build a task list
-        List<CompletableFuture<AudioTrack>> taskList = new ArrayList<>();
-        for (final String s : trackListSearchTerms) {
-            //remove all punctuation
-            final String query = s.replaceAll(SearchUtil.PUNCTUATION_REGEX, "");
+        job.complete();
 
-            CompletableFuture<AudioTrack> f = CompletableFuture.supplyAsync(() -> searchSingleTrack(query), loader);
-            taskList.add(f);
+        List<AudioTrack> trackList;
+        try {
+            trackList = job.getResult().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.cancel();
+            return new BasicAudioPlaylist(playlistName, job.getResult().getNow(Collections.emptyList()), null, true);
+        } catch (ExecutionException e) {
+            throw new FriendlyException("Failed loading playlist item", FriendlyException.Severity.FAULT, e);
         }
 
-        //build a tracklist from that task list
-        final List<AudioTrack> trackList = new ArrayList<>();
-        for (CompletableFuture<AudioTrack> futureTrack : taskList) {
-            try {
-                final AudioTrack audioItem = futureTrack.get();
-                if (audioItem == null) {
-                    continue; //skip the track if we couldn't find it
-                }
-                trackList.add(audioItem);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            } catch (ExecutionException ignored) {
-                //this is fine, loop will go for the next item
-            }
+        //an import during an outage of the search providers would cache little but failures
+        int failed = job.getFailedCount();
+        if (failed * 2 > job.getTermCount()) {
+            log.warn("Searches for {} of {} tracks of {} failed, not caching it", failed, job.getTermCount(), playlistName);
+        } else if (snapshotId != null) {
+            //encode right here, the tracks are about to be handed over to the player
+            ResolvedSpotifyPlaylist resolved = new ResolvedSpotifyPlaylist(manager, spotifyListId, snapshotId, job.getResolved());
+            EntityRepository.runInBackground("ResolvedSpotifyPlaylist", "merge", resolved::save);
         }
         return new BasicAudioPlaylist(playlistName, trackList, null, true);
     }
 
-    /**
-     * Searches all available searching sources for a single track.
-     * <p>
-     * Will go Youtube > SoundCloud > return null
-     * This could probably be moved to SearchUtil
-     *
-     * @param query Term that shall be searched
-     * @return An AudioTrack likely corresponding to the query term or null.
-     */
-    private AudioTrack searchSingleTrack(final String query) {
+    @Nullable
+    private ResolvedSpotifyPlaylist findResolved(String playlistId) {
         try {
-            AudioPlaylist list = SearchUtil.searchForTracks(query, CACHE_DURATION, 60000, searchProviders);
-            //didn't find anything
-            if (list == null || list.getTracks().isEmpty()) {
-                return null;
-            }
-
-            //pick topmost result, and hope it's what the user wants to listen to
-            //having users pick tracks like they can do for individual searches would be ridiculous for playlists with
-            //dozens of tracks. youtube search is probably good enough for this
-            //
-            //testcase:   Rammstein playlists; high quality Rammstein vids are really rare on Youtube.
-            //            https://open.spotify.com/user/11174036433/playlist/0ePRMvD3Dn3zG31A8y64xX
-            //result:     lots of low quality (covers, pitched up/down, etc) tracks loaded.
-            //conclusion: there's room for improvement to this whole method
-            return list.getTracks().get(0);
-        } catch (SearchUtil.SearchingException e) {
-            //youtube & soundcloud not available
+            return EntityRepository.await(EntityRepository.supply("ResolvedSpotifyPlaylist", "read",
+                    () -> ResolvedSpotifyPlaylist.find(playlistId, CACHE_DURATION)));
+        } catch (DatabaseNotReadyException e) {
+            log.warn("Could not look up resolved spotify playlist {}", playlistId);
             return null;
         }
     }
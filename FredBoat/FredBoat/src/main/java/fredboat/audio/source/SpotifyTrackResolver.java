@@ -0,0 +1,317 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.source;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.feature.metrics.Metrics;
+import fredboat.util.Tuple2;
+import fredboat.util.rest.SearchUtil;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Bucket4j;
+import io.github.bucket4j.Refill;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves the search terms of imported Spotify playlists to tracks.
+ * <p>
+ * All imports share one pool of worker threads. Each import may only have a limited amount of searches queued or
+ * running at any time, and every finished search queues the next one of its import at the back of the pool's queue,
+ * so concurrent imports take turns instead of a big import starving the ones that come after it.
+ * Searches that can't be answered from the caches additionally share a token bucket, so that imports don't get
+ * FredBoat flagged by Youtube.
+ */
+public class SpotifyTrackResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(SpotifyTrackResolver.class);
+
+    private static final List<SearchUtil.SearchProvider> SEARCH_PROVIDERS
+            = Arrays.asList(SearchUtil.SearchProvider.YOUTUBE, SearchUtil.SearchProvider.SOUNDCLOUD);
+    private static final int SEARCH_TIMEOUT_MILLIS = 60000;
+
+    private final ThreadPoolExecutor workers;
+    private final int importParallelism;
+    private final Bucket searchBudget;
+
+    /**
+     * @param threads           Searches running at the same time across all imports
+     * @param importParallelism Searches running at the same time for a single import
+     * @param searchesPerSecond Searches per second that may be sent to the providers across all imports
+     */
+    public SpotifyTrackResolver(int threads, int importParallelism, long searchesPerSecond) {
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "spotify-resolver-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+        this.importParallelism = Math.max(1, importParallelism);
+
+        Refill refill = Refill.smooth(searchesPerSecond, Duration.ofSeconds(1));
+        Bandwidth limit = Bandwidth.classic(searchesPerSecond, refill);
+        this.searchBudget = Bucket4j.builder().addLimit(limit).build();
+
+        Metrics.instance().threadPoolCollector.addPool("spotify-resolver", workers);
+    }
+
+    /**
+     * Start a new import. Add its search terms with {@link Job#add(int, String)} and call {@link Job#complete()} once
+     * all of them have been added.
+     *
+     * @param name name of the import, for logging
+     */
+    public Job newJob(String name) {
+        Metrics.spotifyImportsActive.inc();
+        return new Job(name);
+    }
+
+    public class Job {
+        private final String name;
+        private final long started = System.nanoTime();
+        private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+        private final TreeMap<Integer, String> terms = new TreeMap<>();
+        //sorted by position, tracks that could not be found are left out
+        private final TreeMap<Integer, AudioTrack> results = new TreeMap<>();
+        //positions whose search failed, as opposed to finding nothing
+        private final Set<Integer> failed = new HashSet<>();
+        private final CompletableFuture<List<AudioTrack>> future = new CompletableFuture<>();
+        private int scheduled = 0; //searches of this job queued or running in the pool
+        private boolean complete = false; //no more terms will be added, because all have been or the job was cancelled
+
+        private Job(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Queue a search term of this import. The resolved tracks are ordered by their position, so terms may be
+         * added in any order. Does nothing once the import has been cancelled.
+         *
+         * @param position position of the track in the imported playlist
+         */
+        public void add(int position, String searchTerm) {
+            synchronized (this) {
+                if (complete || future.isDone() || terms.containsKey(position)) return;
+                pending.add(position);
+                terms.put(position, searchTerm);
+            }
+            Metrics.spotifyTracksPending.inc();
+            schedule();
+        }
+
+        /**
+         * Add a search term of this import that has been resolved already, without searching it again.
+         *
+         * @param position position of the track in the imported playlist
+         * @param track    the track the term resolved to, or null if nothing was found for it
+         */
+        public void addResolved(int position, String searchTerm, @Nullable AudioTrack track) {
+            synchronized (this) {
+                if (complete || future.isDone() || terms.containsKey(position)) return;
+                terms.put(position, searchTerm);
+                if (track != null) {
+                    results.put(position, track);
+                }
+            }
+            Metrics.spotifyTracksResolved.labels("cached").inc();
+        }
+
+        /**
+         * @return the search terms of this import ordered by their position, each with the track it resolved to, or
+         * null if nothing was found for it. Terms whose search failed are left out, as they say nothing about whether
+         * there is a track for them. Only complete once {@link #getResult()} is done.
+         */
+        public synchronized List<Tuple2<String, AudioTrack>> getResolved() {
+            List<Tuple2<String, AudioTrack>> resolved = new ArrayList<>(terms.size());
+            for (Map.Entry<Integer, String> term : terms.entrySet()) {
+                if (failed.contains(term.getKey())) continue;
+                resolved.add(new Tuple2<>(term.getValue(), results.get(term.getKey())));
+            }
+            return resolved;
+        }
+
+        /**
+         * @return amount of search terms of this import whose search failed, for example because the providers were
+         * unavailable
+         */
+        public synchronized int getFailedCount() {
+            return failed.size();
+        }
+
+        /**
+         * @return amount of search terms added to this import
+         */
+        public synchronized int getTermCount() {
+            return terms.size();
+        }
+
+        /**
+         * No more search terms will be added to this import.
+         */
+        public void complete() {
+            synchronized (this) {
+                complete = true;
+            }
+            finishIfDone();
+        }
+
+        /**
+         * Stop resolving the rest of this import, completing it with the tracks resolved so far.
+         */
+        public void cancel() {
+            int dropped;
+            synchronized (this) {
+                dropped = pending.size();
+                pending.clear();
+                complete = true;
+            }
+            Metrics.spotifyTracksPending.dec(dropped);
+            finishIfDone();
+        }
+
+        /**
+         * @return the tracks found for the search terms in the order they were added, skipping those that could not
+         * be found
+         */
+        public CompletableFuture<List<AudioTrack>> getResult() {
+            return future;
+        }
+
+        private void schedule() {
+            int toSchedule;
+            synchronized (this) {
+                toSchedule = Math.min(importParallelism - scheduled, pending.size());
+                if (toSchedule <= 0) return;
+                scheduled += toSchedule;
+            }
+            for (int i = 0; i < toSchedule; i++) {
+                workers.execute(this::resolveNext);
+            }
+        }
+
+        private void resolveNext() {
+            int index;
+            String term;
+            synchronized (this) {
+                Integer next = pending.poll();
+                if (next == null) {
+                    scheduled--;
+                    return;
+                }
+                index = next;
+                term = terms.get(index);
+            }
+            Metrics.spotifyTracksPending.dec();
+
+            AudioTrack track = null;
+            boolean searchFailed = false;
+            try {
+                track = searchSingleTrack(term);
+            } catch (SearchUtil.SearchingException e) {
+                //youtube & soundcloud not available
+                log.debug("Failed to search {} of import {}", term, name, e);
+                searchFailed = true;
+            } catch (Exception e) {
+                log.error("Unexpected exception while resolving {} of import {}", term, name, e);
+                searchFailed = true;
+            }
+            Metrics.spotifyTracksResolved.labels(searchFailed ? "failed" : track != null ? "found" : "missing").inc();
+
+            synchronized (this) {
+                if (track != null) {
+                    results.put(index, track);
+                } else if (searchFailed) {
+                    failed.add(index);
+                }
+                scheduled--;
+            }
+            //go to the back of the queue, giving other imports their turn
+            schedule();
+            finishIfDone();
+        }
+
+        private void finishIfDone() {
+            List<AudioTrack> tracks;
+            synchronized (this) {
+                if (!complete || scheduled > 0 || !pending.isEmpty() || future.isDone()) return;
+                tracks = new ArrayList<>(results.values());
+            }
+            Metrics.spotifyImportsActive.dec();
+            Metrics.spotifyImportDuration.observe((System.nanoTime() - started) / 1_000_000_000.0);
+            log.info("Resolved {} of {} tracks of {} in {}ms", tracks.size(), terms.size(), name,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            future.complete(tracks);
+        }
+    }
+
+    /**
+     * Searches all available searching sources for a single track.
+     * <p>
+     * Will go Youtube > SoundCloud > return null
+     *
+     * @param query Term that shall be searched
+     * @return An AudioTrack likely corresponding to the query term or null if nothing was found
+     * @throws SearchUtil.SearchingException if the search failed, which is not the same as finding nothing
+     */
+    @Nullable
+    private AudioTrack searchSingleTrack(final String query) throws SearchUtil.SearchingException {
+        AudioPlaylist list = SearchUtil.searchForTracks(query, SpotifyPlaylistSourceManager.CACHE_DURATION,
+                SEARCH_TIMEOUT_MILLIS, SEARCH_PROVIDERS, searchBudget);
+        //didn't find anything
+        if (list == null || list.getTracks().isEmpty()) {
+            return null;
+        }
+
+        //pick topmost result, and hope it's what the user wants to listen to
+        //having users pick tracks like they can do for individual searches would be ridiculous for playlists with
+        //dozens of tracks. youtube search is probably good enough for this
+        //
+        //testcase:   Rammstein playlists; high quality Rammstein vids are really rare on Youtube.
+        //            https://open.spotify.com/user/11174036433/playlist/0ePRMvD3Dn3zG31A8y64xX
+        //result:     lots of low quality (covers, pitched up/down, etc) tracks loaded.
+        //conclusion: there's room for improvement to this whole method
+        return list.getTracks().get(0);
+    }
+}
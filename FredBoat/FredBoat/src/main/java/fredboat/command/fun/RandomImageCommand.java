@@ -43,6 +43,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -66,6 +67,9 @@ public class RandomImageCommand extends Command implements IFunCommand {
     //contains the images that this class randomly serves, default entry is a "my body is not ready" gif
     private volatile String[] urls = {"http://i.imgur.com/NqyOqnj.gif"};
 
+    //set once someone asks for images as files, from then on the album's images are downloaded ahead of time
+    private volatile boolean servesFiles = false;
+
     public RandomImageCommand(@Nonnull String imgurAlbumUrl, String name, String... aliases) {
         super(name, aliases);
         //update the album every hour
@@ -88,6 +92,10 @@ public class RandomImageCommand extends Command implements IFunCommand {
         String randomUrl;
         synchronized (this) {
             randomUrl = getRandomImageUrl();
+            if (!servesFiles) {
+                servesFiles = true;
+                CacheUtil.prefetchImages(Arrays.asList(urls));
+            }
         }
 
         return CacheUtil.getImageFromURL(randomUrl);
@@ -131,6 +139,9 @@ public class RandomImageCommand extends Command implements IFunCommand {
                 synchronized (this) {
                     urls = imageUrls.toArray(urls);
                     etag = response.header("ETag");
+                    if (servesFiles) {
+                        CacheUtil.prefetchImages(imageUrls);
+                    }
                 }
                 log.info("Refreshed imgur album {}, new data found.", imgurAlbumUrl);
             } else {
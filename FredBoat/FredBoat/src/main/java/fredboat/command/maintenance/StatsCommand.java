@@ -45,7 +45,6 @@ import net.dv8tion.jda.core.entities.Message;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.text.MessageFormat;
 import java.util.Map;
 import java.util.ResourceBundle;
 
@@ -80,10 +79,10 @@ public class StatsCommand extends Command implements IMaintenanceCommand {
             i18n = I18n.DEFAULT.getProps();
         }
         double commandsExecuted = CommandManager.totalCommandsExecuted.get();
-        String str = MessageFormat.format(i18n.getString("statsParagraph"),
+        String str = I18n.format(i18n.getString("statsParagraph"),
                 days, hours, mins, secs, commandsExecuted - 1)
                 + "\n";
-        str = MessageFormat.format(i18n.getString("statsRate"), str,
+        str = I18n.format(i18n.getString("statsRate"), str,
                 (float) (commandsExecuted - 1) / ((float) totalSecs / (float) (60 * 60)));
 
         str += "\n\n";
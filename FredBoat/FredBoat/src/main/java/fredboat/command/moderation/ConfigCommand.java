@@ -25,10 +25,12 @@
 
 package fredboat.command.moderation;
 
+import fredboat.Config;
 import fredboat.command.util.HelpCommand;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.ICommandRestricted;
+import fredboat.commandmeta.abs.IDefaultPrefixCommand;
 import fredboat.commandmeta.abs.IModerationCommand;
 import fredboat.db.EntityReader;
 import fredboat.db.EntityWriter;
@@ -42,7 +44,10 @@ import net.dv8tion.jda.core.entities.Member;
 
 import javax.annotation.Nonnull;
 
-public class ConfigCommand extends Command implements IModerationCommand, ICommandRestricted {
+//reachable through the default prefix even with a custom prefix set, so a forgotten custom prefix can be changed back
+public class ConfigCommand extends Command implements IModerationCommand, ICommandRestricted, IDefaultPrefixCommand {
+
+    private static final int MAX_PREFIX_LENGTH = 16;
 
     public ConfigCommand(String name, String... aliases) {
         super(name, aliases);
@@ -68,7 +73,9 @@ public class ConfigCommand extends Command implements IModerationCommand, IComma
         MessageBuilder mb = CentralMessaging.getClearThreadLocalMessageBuilder()
                 .append(context.i18nFormat("configNoArgs", context.guild.getName())).append("\n")
                 .append("track_announce = ").append(gc.isTrackAnnounce()).append("\n")
+                .append("track_announce_edit = ").append(gc.isTrackAnnounceEdit()).append("\n")
                 .append("auto_resume = ").append(gc.isAutoResume()).append("\n")
+                .append("prefix = ").append(gc.getPrefix() != null ? gc.getPrefix() : Config.CONFIG.getPrefix()).append("\n")
                 .append("```"); //opening ``` is part of the configNoArgs language string
 
         context.reply(mb.build());
@@ -99,6 +106,15 @@ public class ConfigCommand extends Command implements IModerationCommand, IComma
                     context.reply(context.i18nFormat("configMustBeBoolean", invoker.getEffectiveName()));
                 }
                 break;
+            case "track_announce_edit":
+                if (val.equalsIgnoreCase("true") | val.equalsIgnoreCase("false")) {
+                    gc.setTrackAnnounceEdit(Boolean.valueOf(val));
+                    EntityWriter.mergeGuildConfig(gc);
+                    context.replyWithName("`track_announce_edit` " + context.i18nFormat("configSetTo", val));
+                } else {
+                    context.reply(context.i18nFormat("configMustBeBoolean", invoker.getEffectiveName()));
+                }
+                break;
             case "auto_resume":
                 if (val.equalsIgnoreCase("true") | val.equalsIgnoreCase("false")) {
                     gc.setAutoResume(Boolean.valueOf(val));
@@ -108,6 +124,16 @@ public class ConfigCommand extends Command implements IModerationCommand, IComma
                     context.reply(context.i18nFormat("configMustBeBoolean", invoker.getEffectiveName()));
                 }
                 break;
+            case "prefix":
+                if (val.length() > MAX_PREFIX_LENGTH) {
+                    context.reply(context.i18nFormat("configPrefixTooLong", MAX_PREFIX_LENGTH));
+                } else {
+                    //setting the default prefix removes the custom one
+                    gc.setPrefix(val.equals(Config.CONFIG.getPrefix()) ? null : val);
+                    EntityWriter.mergeGuildConfig(gc);
+                    context.replyWithName("`prefix` " + context.i18nFormat("configSetTo", val));
+                }
+                break;
             default:
                 context.reply(context.i18nFormat("configUnknownKey", invoker.getEffectiveName()));
                 break;
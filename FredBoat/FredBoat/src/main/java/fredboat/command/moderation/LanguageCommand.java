@@ -26,6 +26,7 @@
 package fredboat.command.moderation;
 
 import fredboat.Config;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.IModerationCommand;
@@ -78,7 +79,7 @@ public class LanguageCommand extends Command implements IModerationCommand {
 
     private void handleNoArgs(CommandContext context) {
         MessageBuilder mb = CentralMessaging.getClearThreadLocalMessageBuilder()
-                .append(context.i18n("langInfo").replace(Config.DEFAULT_PREFIX, Config.CONFIG.getPrefix()))//todo custom prefix
+                .append(context.i18n("langInfo").replace(Config.DEFAULT_PREFIX, PrefixRegistry.getPrefix(context.guild.getIdLong())))
                 .append("\n\n");
 
         List<String> keys = new ArrayList<>(I18n.LANGS.keySet());
@@ -146,6 +146,7 @@ public class PermissionsCommand extends Command implements IModerationCommand {
 
         gp.setFromEnum(permissionLevel, newList);
         EntityWriter.mergeGuildPermissions(gp);
+        PermsUtil.invalidateGuild(guild.getIdLong());
 
         context.replyWithName(context.i18nFormat("permsRemoved", mentionableToName(selected), permissionLevel));
     }
@@ -172,6 +173,7 @@ public class PermissionsCommand extends Command implements IModerationCommand {
         newList.add(mentionableToId(selected));
         gp.setFromEnum(permissionLevel, newList);
         EntityWriter.mergeGuildPermissions(gp);
+        PermsUtil.invalidateGuild(guild.getIdLong());
 
         context.replyWithName(context.i18nFormat("permsAdded", mentionableToName(selected), permissionLevel));
     }
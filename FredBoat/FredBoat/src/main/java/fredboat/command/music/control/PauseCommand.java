@@ -25,9 +25,9 @@
 
 package fredboat.command.music.control;
 
-import fredboat.Config;
 import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.player.PlayerRegistry;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.ICommandRestricted;
@@ -57,7 +57,7 @@ public class PauseCommand extends Command implements IMusicCommand, ICommandRest
             context.reply(context.i18n("pauseAlreadyPaused"));
         } else {
             player.pause();
-            context.reply(context.i18nFormat("pauseSuccess", Config.CONFIG.getPrefix()));
+            context.reply(context.i18nFormat("pauseSuccess", PrefixRegistry.getPrefix(context.guild.getIdLong())));
         }
     }
 
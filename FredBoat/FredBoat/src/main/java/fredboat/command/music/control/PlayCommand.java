@@ -27,12 +27,12 @@ package fredboat.command.music.control;
 
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
-import fredboat.Config;
 import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.player.LavalinkManager;
 import fredboat.audio.player.PlayerLimitManager;
 import fredboat.audio.player.PlayerRegistry;
 import fredboat.audio.player.VideoSelection;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.ICommandRestricted;
@@ -158,7 +158,7 @@ public class PlayCommand extends Command implements IMusicCommand, ICommandRestr
                 }
 
                 MessageBuilder builder = CentralMessaging.getClearThreadLocalMessageBuilder();
-                builder.append(context.i18nFormat("playSelectVideo", Config.CONFIG.getPrefix()));
+                builder.append(context.i18nFormat("playSelectVideo", PrefixRegistry.getPrefix(context.guild.getIdLong())));
 
                 int i = 1;
                 for (AudioTrack track : selectable) {
@@ -25,20 +25,25 @@
 
 package fredboat.command.music.info;
 
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.audio.player.AbstractPlayer;
 import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.player.PlayerRegistry;
+import fredboat.audio.queue.AudioTrackContext;
 import fredboat.commandmeta.MessagingException;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.IMusicCommand;
 import fredboat.messaging.internal.Context;
 import fredboat.util.TextUtils;
+import fredboat.util.TrackListCodec;
 import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.util.List;
 import java.util.stream.Collectors;
 
 public class ExportCommand extends Command implements IMusicCommand {
@@ -62,9 +67,11 @@ public class ExportCommand extends Command implements IMusicCommand {
             throw new MessagingException(context.i18n("exportEmpty"));
         }
 
-        String out = player.getRemainingTracks().stream()
-                .map(atc -> atc.getTrack().getInfo().uri)
-                .collect(Collectors.joining("\n"));
+        //carry the encoded tracks, so importing them again does not need to look every single one of them up
+        List<AudioTrack> tracks = player.getRemainingTracks().stream()
+                .map(AudioTrackContext::getTrack)
+                .collect(Collectors.toList());
+        String out = TrackListCodec.encodeExport(AbstractPlayer.getPlayerManager(), tracks);
 
         try {
             String url = TextUtils.postToPasteService(out) + ".fredboat";
@@ -31,6 +31,7 @@ import fredboat.audio.queue.AudioTrackContext;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.IMusicCommand;
+import fredboat.feature.I18n;
 import fredboat.messaging.CentralMessaging;
 import fredboat.messaging.internal.Context;
 import fredboat.util.TextUtils;
@@ -38,7 +39,6 @@ import net.dv8tion.jda.core.MessageBuilder;
 import net.dv8tion.jda.core.entities.Member;
 
 import javax.annotation.Nonnull;
-import java.text.MessageFormat;
 import java.util.List;
 
 public class HistoryCommand extends Command implements IMusicCommand {
@@ -89,7 +89,7 @@ public class HistoryCommand extends Command implements IMusicCommand {
       MessageBuilder mb = CentralMessaging.getClearThreadLocalMessageBuilder()
               .append(context.i18n("listShowHistory"))
               .append("\n")
-              .append(MessageFormat.format(context.i18n("listPageNum"), page, maxPages))
+              .append(I18n.format(context.i18n("listPageNum"), page, maxPages))
               .append("\n")
               .append("\n");
 
@@ -102,7 +102,7 @@ public class HistoryCommand extends Command implements IMusicCommand {
               TextUtils.forceNDigits(i + 1, numberLength)
               + "]", MessageBuilder.Formatting.BLOCK)
               .append(status)
-              .append(MessageFormat.format(context.i18n("listAddedBy"), atc.getEffectiveTitle(), username, TextUtils.formatTime(atc.getEffectiveDuration())))
+              .append(I18n.format(context.i18n("listAddedBy"), atc.getEffectiveTitle(), username, TextUtils.formatTime(atc.getEffectiveDuration())))
               .append("\n");
 
           if (i == listEnd) {
@@ -28,6 +28,7 @@ import fredboat.Config;
 import fredboat.command.fun.RemoteFileCommand;
 import fredboat.command.fun.TextCommand;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.ICommandRestricted;
@@ -143,7 +144,7 @@ public class CommandsCommand extends Command implements IUtilCommand {
             out += "\n" + owner;
         }
 
-        out += "\n\n" + context.i18nFormat("commandsMoreHelp", "`" + Config.CONFIG.getPrefix() + "help <command>`");
+        out += "\n\n" + context.i18nFormat("commandsMoreHelp", "`" + PrefixRegistry.getPrefix(context.guild.getIdLong()) + "help <command>`");
         context.reply(out);
     }
 
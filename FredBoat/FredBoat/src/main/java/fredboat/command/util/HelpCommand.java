@@ -27,9 +27,9 @@ package fredboat.command.util;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import fredboat.Config;
 import fredboat.command.music.control.SelectCommand;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.ICommandRestricted;
@@ -47,7 +47,6 @@ import net.dv8tion.jda.core.events.message.priv.PrivateMessageReceivedEvent;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.text.MessageFormat;
 import java.util.concurrent.TimeUnit;
 
 public class HelpCommand extends Command implements IUtilCommand {
@@ -98,7 +97,7 @@ public class HelpCommand extends Command implements IUtilCommand {
                     helpReceivedRecently.put(userId, true);
                     String out = context.i18n("helpSent");
                     out += "\n" + context.i18nFormat("helpCommandsPromotion",
-                            "`" + Config.CONFIG.getPrefix() + "commands`");
+                            "`" + PrefixRegistry.getPrefix(context.guild.getIdLong()) + "commands`");
                     if (context.hasPermissions(Permission.MESSAGE_WRITE)) {
                         context.replyWithName(out);
                     }
@@ -129,7 +128,7 @@ public class HelpCommand extends Command implements IUtilCommand {
         if (command instanceof SelectCommand)
             thirdParam = "play";
 
-        return MessageFormat.format(helpStr, Config.CONFIG.getPrefix(), commandOrAlias, thirdParam);
+        return I18n.format(helpStr, PrefixRegistry.getPrefix(context.getGuild().getIdLong()), commandOrAlias, thirdParam);
     }
 
     public static void sendFormattedCommandHelp(CommandContext context) {
@@ -139,9 +138,9 @@ public class HelpCommand extends Command implements IUtilCommand {
     private static void sendFormattedCommandHelp(CommandContext context, String trigger) {
         CommandRegistry.CommandEntry commandEntry = CommandRegistry.getCommand(trigger);
         if (commandEntry == null) {
-            String out = "`" + Config.CONFIG.getPrefix() + trigger + "`: " + context.i18n("helpUnknownCommand");
-            out += "\n" + context.i18nFormat("helpCommandsPromotion",
-                    "`" + Config.CONFIG.getPrefix() + "commands`");
+            String prefix = PrefixRegistry.getPrefix(context.guild.getIdLong());
+            String out = "`" + prefix + trigger + "`: " + context.i18n("helpUnknownCommand");
+            out += "\n" + context.i18nFormat("helpCommandsPromotion", "`" + prefix + "commands`");
             context.replyWithName(out);
             return;
         }
@@ -159,6 +158,6 @@ public class HelpCommand extends Command implements IUtilCommand {
     }
 
     public static String getHelpDmMsg(@Nullable Guild guild) {
-        return MessageFormat.format(I18n.get(guild).getString("helpDM"), inviteLink);
+        return I18n.format(I18n.get(guild).getString("helpDM"), inviteLink);
     }
 }
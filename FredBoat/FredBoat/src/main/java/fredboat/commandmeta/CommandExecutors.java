@@ -0,0 +1,207 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.commandmeta;
+
+import fredboat.commandmeta.abs.Command;
+import fredboat.commandmeta.abs.IFunCommand;
+import fredboat.commandmeta.abs.IMaintenanceCommand;
+import fredboat.commandmeta.abs.IModerationCommand;
+import fredboat.commandmeta.abs.IMusicCommand;
+import fredboat.commandmeta.abs.IUtilCommand;
+import fredboat.feature.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands off the JDA event threads, on a separate bounded thread pool for each category of commands.
+ * <p>
+ * Slow commands waiting on some http API then only hold up other commands of their category, instead of the event
+ * dispatch of a whole shard. The commands of a guild form a chain: only one of them is handed to the pool at a time,
+ * the next one once it is done, so they run one after another in the order they were issued, like they did on the
+ * event thread, while a slow guild never holds up the commands of other guilds.
+ * Once a pool and its queue are full, or a guild has too many commands waiting, further commands are rejected right
+ * away instead of piling up.
+ */
+public class CommandExecutors {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandExecutors.class);
+
+    //commands of a single guild waiting for the one that is running
+    private static final int MAX_WAITING_PER_GUILD = 10;
+
+    public enum Category {
+        //@formatter:off
+        MUSIC       (8, 200),
+        FUN         (4, 50),
+        UTIL        (4, 50),
+        MODERATION  (2, 50),
+        MAINTENANCE (2, 20),
+        OTHER       (2, 20);
+        //@formatter:on
+
+        private final int threads;
+        private final int queueSize;
+
+        Category(int threads, int queueSize) {
+            this.threads = threads;
+            this.queueSize = queueSize;
+        }
+
+        @Nonnull
+        public static Category of(@Nonnull Command command) {
+            if (command instanceof IMusicCommand) return MUSIC;
+            if (command instanceof IFunCommand) return FUN;
+            if (command instanceof IUtilCommand) return UTIL;
+            if (command instanceof IModerationCommand) return MODERATION;
+            if (command instanceof IMaintenanceCommand) return MAINTENANCE;
+            return OTHER;
+        }
+
+        //label used for metrics and thread names
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final Map<Category, CategoryExecutor> executors = new EnumMap<>(Category.class);
+
+    static {
+        for (Category category : Category.values()) {
+            String name = "commands-" + category.label();
+            AtomicInteger threadNumber = new AtomicInteger(0);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(category.threads, category.threads,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(category.queueSize),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executors.put(category, new CategoryExecutor(pool));
+            Metrics.instance().threadPoolCollector.addPool(name, pool);
+        }
+    }
+
+    private CommandExecutors() {
+    }
+
+    /**
+     * @param command the command that is about to be run, to pick the category
+     * @param guildId the guild the command was issued in, its commands run in the order they are passed in here
+     * @return false if the executor of the command is saturated and the command was not accepted
+     */
+    public static boolean execute(@Nonnull Command command, long guildId, @Nonnull Runnable execution) {
+        Category category = Category.of(command);
+        if (executors.get(category).execute(guildId, execution)) {
+            return true;
+        }
+        Metrics.commandsRejected.labels(category.label()).inc();
+        return false;
+    }
+
+    public static void shutdown() {
+        executors.values().forEach(executor -> executor.pool.shutdown());
+    }
+
+    private static class CategoryExecutor {
+        private final ThreadPoolExecutor pool;
+        //guild id -> commands of that guild waiting for the running one. only guilds with a running command have an
+        //entry, it is dropped once their chain runs empty. guarded by this
+        private final Map<Long, ArrayDeque<Runnable>> chains = new HashMap<>();
+
+        private CategoryExecutor(ThreadPoolExecutor pool) {
+            this.pool = pool;
+        }
+
+        private synchronized boolean execute(long guildId, Runnable execution) {
+            ArrayDeque<Runnable> waiting = chains.get(guildId);
+            if (waiting != null) {
+                if (waiting.size() >= MAX_WAITING_PER_GUILD) {
+                    return false;
+                }
+                waiting.add(execution);
+                return true;
+            }
+
+            //handing it to the pool doesn't block, so this can happen under the lock
+            try {
+                pool.execute(() -> runChain(guildId, execution));
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+            chains.put(guildId, new ArrayDeque<>());
+            return true;
+        }
+
+        private void runChain(long guildId, Runnable execution) {
+            Runnable current = execution;
+            while (current != null) {
+                try {
+                    current.run();
+                } catch (RuntimeException e) {
+                    //the rest of the chain has to run no matter what
+                    log.error("Uncaught exception in a command execution", e);
+                }
+
+                Runnable next = next(guildId);
+                if (next == null) {
+                    return;
+                }
+                //back into the pool, so a guild with many commands takes turns with the other guilds
+                try {
+                    pool.execute(() -> runChain(guildId, next));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    //the pool is saturated, rather keep running the chain here than drop commands that were accepted
+                    current = next;
+                }
+            }
+        }
+
+        //the next command of the guild, or null after dropping the chain of the guild if none is waiting
+        @Nullable
+        private synchronized Runnable next(long guildId) {
+            ArrayDeque<Runnable> waiting = chains.get(guildId);
+            Runnable next = waiting == null ? null : waiting.poll();
+            if (next == null) {
+                chains.remove(guildId);
+            }
+            return next;
+        }
+    }
+}
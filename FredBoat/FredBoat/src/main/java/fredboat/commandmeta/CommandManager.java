@@ -137,6 +137,8 @@ public class CommandManager {
                 && DiscordUtil.isPatronBotPresentAndOnline(guild)
                 && guild.getMemberById(BotConstants.PATRON_BOT_ID) != null
                 && guild.getMemberById(BotConstants.PATRON_BOT_ID).hasPermission(channel, Permission.MESSAGE_WRITE, Permission.MESSAGE_READ)
+                //a guild that set its own prefix talks to us through it, not to the patron bot
+                && PrefixRegistry.getCustomPrefix(guild.getIdLong()) == null
                 && Config.CONFIG.getPrefix().equals(Config.DEFAULT_PREFIX)
                 && !guild.getId().equals(BotConstants.FREDBOAT_HANGOUT_ID)) {
             log.info("Ignored command because patron bot is able to use that channel");
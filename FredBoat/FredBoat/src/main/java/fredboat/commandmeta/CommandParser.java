@@ -0,0 +1,176 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.commandmeta;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand written parsing of command messages.
+ * <p>
+ * Every message FredBoat can see goes through here, and the vast majority of them are not commands. Those are rejected
+ * after looking at their first few characters, without creating any objects. Only once a known command has been found
+ * the message is cut into pieces.
+ */
+public class CommandParser {
+
+    private CommandParser() {
+    }
+
+    /**
+     * @return index right after a mention of the given user at the start of the input, like {@literal <@123>} or
+     * {@literal <@!123>}, or -1 if the input does not start with such a mention
+     */
+    public static int mentionPrefixEnd(@Nonnull String input, long userId) {
+        int length = input.length();
+        if (length < 4 || input.charAt(0) != '<' || input.charAt(1) != '@') {
+            return -1;
+        }
+        int i = input.charAt(2) == '!' ? 3 : 2;
+        int digitsStart = i;
+        long id = 0;
+        for (; i < length; i++) {
+            char c = input.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            int digit = c - '0';
+            if (id > (Long.MAX_VALUE - digit) / 10) {
+                return -1; //too large to be anyone's id
+            }
+            id = id * 10 + digit;
+        }
+        if (i == digitsStart || i >= length || input.charAt(i) != '>' || id != userId) {
+            return -1;
+        }
+        return i + 1;
+    }
+
+    /**
+     * @param prefixEnd index right after the prefix that the input starts with
+     * @return the command found after the prefix, or null if there is nothing but whitespace after the prefix
+     */
+    @Nullable
+    public static ParsedCommand parseCommand(@Nonnull String input, int prefixEnd) {
+        return parseCommand(input, prefixEnd, CommandRegistry.trie);
+    }
+
+    //looks up the trigger in the given commands instead of the registered ones
+    @Nullable
+    static ParsedCommand parseCommand(@Nonnull String input, int prefixEnd, @Nonnull CommandTrie commands) {
+        int length = input.length();
+        //eliminate whitespace between the prefix and the trigger, and at the end of the input, like String#trim() does
+        int start = prefixEnd;
+        while (start < length && input.charAt(start) <= ' ') {
+            start++;
+        }
+        int end = length;
+        while (end > start && input.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start >= end) {
+            return null;
+        }
+
+        int triggerEnd = start;
+        while (triggerEnd < end && !isWhitespace(input.charAt(triggerEnd))) {
+            triggerEnd++;
+        }
+
+        return new ParsedCommand(input, start, triggerEnd, end, commands.get(input, start, triggerEnd));
+    }
+
+    //the characters matched by \s in a regex
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    public static class ParsedCommand {
+        private final String input;
+        private final int triggerStart;
+        private final int triggerEnd;
+        private final int end;
+        @Nullable
+        private final CommandRegistry.CommandEntry entry;
+
+        private ParsedCommand(String input, int triggerStart, int triggerEnd, int end,
+                              @Nullable CommandRegistry.CommandEntry entry) {
+            this.input = input;
+            this.triggerStart = triggerStart;
+            this.triggerEnd = triggerEnd;
+            this.end = end;
+            this.entry = entry;
+        }
+
+        /**
+         * @return the command registered for the trigger, or null if the trigger is not one of our commands
+         */
+        @Nullable
+        public CommandRegistry.CommandEntry getEntry() {
+            return entry;
+        }
+
+        /**
+         * @return the trigger as the user typed it
+         */
+        @Nonnull
+        public String getTrigger() {
+            return input.substring(triggerStart, triggerEnd);
+        }
+
+        /**
+         * @return everything after the trigger, trimmed
+         */
+        @Nonnull
+        public String getRawArgs() {
+            return input.substring(triggerEnd, end).trim();
+        }
+
+        /**
+         * @return the arguments after the trigger, split by any length of whitespace (including new lines)
+         */
+        @Nonnull
+        public String[] getArgs() {
+            List<String> args = new ArrayList<>();
+            int i = triggerEnd;
+            while (i < end) {
+                while (i < end && isWhitespace(input.charAt(i))) {
+                    i++;
+                }
+                int argStart = i;
+                while (i < end && !isWhitespace(input.charAt(i))) {
+                    i++;
+                }
+                if (i > argStart) {
+                    args.add(input.substring(argStart, i));
+                }
+            }
+            return args.toArray(new String[args.size()]);
+        }
+    }
+}
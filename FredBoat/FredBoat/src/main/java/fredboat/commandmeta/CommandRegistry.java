@@ -37,13 +37,17 @@ import java.util.Set;
 public class CommandRegistry {
 
     private static HashMap<String, CommandEntry> registry = new HashMap<>();
+    //same content as the registry, for looking up commands while parsing messages
+    static final CommandTrie trie = new CommandTrie();
 
     public static void registerCommand(@Nonnull Command command) {
         String name = command.name.toLowerCase();
         CommandEntry entry = new CommandEntry(command, name);
         registry.put(name, entry);
+        trie.put(name, entry);
         for (String alias : command.aliases) {
             registry.put(alias.toLowerCase(), entry);
+            trie.put(alias, entry);
         }
     }
 
@@ -81,6 +85,7 @@ public class CommandRegistry {
         }, name);
 
         registry.put(name, entry);
+        trie.put(name, entry);
     }
 
     public static class CommandEntry {
@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.commandmeta;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Case insensitive lookup of command names and aliases directly on the text of a message, without cutting the trigger
+ * out of the message or lower casing it first.
+ * <p>
+ * Written to while commands are registered, read by the threads parsing messages: writes are synchronized and only
+ * ever replace fields with fully built objects, which are volatile, so readers see complete nodes without locking.
+ */
+class CommandTrie {
+
+    private final Node root = new Node();
+
+    synchronized void put(@Nonnull String trigger, @Nonnull CommandRegistry.CommandEntry entry) {
+        Node node = root;
+        for (int i = 0; i < trigger.length(); i++) {
+            node = node.getOrCreateChild(Character.toLowerCase(trigger.charAt(i)));
+        }
+        node.entry = entry;
+    }
+
+    /**
+     * @return the command registered for the trigger in the given region of the input, or null if there is none
+     */
+    @Nullable
+    CommandRegistry.CommandEntry get(@Nonnull CharSequence input, int start, int end) {
+        Node node = root;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.getChild(Character.toLowerCase(input.charAt(i)));
+        }
+        return node == null ? null : node.entry;
+    }
+
+    private static class Node {
+        //sorted, so children can be found with a binary search. the two arrays are always replaced together
+        private volatile Children children = Children.EMPTY;
+        @Nullable
+        private volatile CommandRegistry.CommandEntry entry;
+
+        @Nullable
+        private Node getChild(char c) {
+            Children current = children;
+            int i = Arrays.binarySearch(current.keys, c);
+            return i < 0 ? null : current.nodes[i];
+        }
+
+        //call while holding the trie's lock
+        private Node getOrCreateChild(char c) {
+            Children current = children;
+            int i = Arrays.binarySearch(current.keys, c);
+            if (i >= 0) {
+                return current.nodes[i];
+            }
+            int insert = -(i + 1);
+            char[] keys = new char[current.keys.length + 1];
+            Node[] nodes = new Node[current.nodes.length + 1];
+            System.arraycopy(current.keys, 0, keys, 0, insert);
+            System.arraycopy(current.nodes, 0, nodes, 0, insert);
+            System.arraycopy(current.keys, insert, keys, insert + 1, current.keys.length - insert);
+            System.arraycopy(current.nodes, insert, nodes, insert + 1, current.nodes.length - insert);
+            Node child = new Node();
+            keys[insert] = c;
+            nodes[insert] = child;
+            children = new Children(keys, nodes);
+            return child;
+        }
+    }
+
+    private static class Children {
+        private static final Children EMPTY = new Children(new char[0], new Node[0]);
+
+        private final char[] keys;
+        private final Node[] nodes;
+
+        private Children(char[] keys, Node[] nodes) {
+            this.keys = keys;
+            this.nodes = nodes;
+        }
+    }
+}
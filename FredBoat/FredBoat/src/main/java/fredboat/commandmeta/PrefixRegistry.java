@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.commandmeta;
+
+import fredboat.Config;
+import fredboat.db.entity.GuildConfig;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+
+/**
+ * Custom prefixes of the guilds, held in memory so that parsing a message never has to go to the database.
+ * <p>
+ * Kept in sync with the guild configs by the database layer whenever a config is loaded or written. Reads happen for
+ * every message, writes only when configs are loaded or a prefix changes, so writers replace the whole map, and readers
+ * look up a guild id without locking, boxing or allocating anything.
+ */
+public class PrefixRegistry {
+
+    //only guilds with a custom prefix have an entry
+    private static volatile Long2ObjectOpenHashMap<String> prefixes = new Long2ObjectOpenHashMap<>();
+
+    private PrefixRegistry() {
+    }
+
+    /**
+     * @return the custom prefix of the guild, or null if it uses the default prefix
+     */
+    @Nullable
+    public static String getCustomPrefix(long guildId) {
+        return prefixes.get(guildId);
+    }
+
+    /**
+     * @return the prefix to show users of the guild, its custom prefix or else the default prefix
+     */
+    @Nonnull
+    public static String getPrefix(long guildId) {
+        String custom = prefixes.get(guildId);
+        return custom != null ? custom : Config.CONFIG.getPrefix();
+    }
+
+    public static void update(@Nonnull GuildConfig config) {
+        long guildId = Long.parseLong(config.getGuildId());
+        String prefix = config.getPrefix();
+        synchronized (PrefixRegistry.class) {
+            Long2ObjectOpenHashMap<String> current = prefixes;
+            if (prefix == null ? !current.containsKey(guildId) : prefix.equals(current.get(guildId))) {
+                return; //nothing changed, spare us the copy
+            }
+            Long2ObjectOpenHashMap<String> updated = new Long2ObjectOpenHashMap<>(current);
+            if (prefix == null) {
+                updated.remove(guildId);
+            } else {
+                updated.put(guildId, prefix);
+            }
+            prefixes = updated;
+        }
+    }
+
+    /**
+     * Same as {@link #update(GuildConfig)} for each of the configs, but with a single copy of the map
+     */
+    public static void updateAll(@Nonnull Collection<GuildConfig> configs) {
+        synchronized (PrefixRegistry.class) {
+            Long2ObjectOpenHashMap<String> updated = new Long2ObjectOpenHashMap<>(prefixes);
+            for (GuildConfig config : configs) {
+                long guildId = Long.parseLong(config.getGuildId());
+                if (config.getPrefix() == null) {
+                    updated.remove(guildId);
+                } else {
+                    updated.put(guildId, config.getPrefix());
+                }
+            }
+            prefixes = updated;
+        }
+    }
+}
@@ -26,7 +26,9 @@
 package fredboat.commandmeta.abs;
 
 import fredboat.Config;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.feature.metrics.Metrics;
 import fredboat.messaging.CentralMessaging;
 import fredboat.messaging.internal.Context;
@@ -42,7 +44,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -85,39 +86,50 @@ public class CommandContext extends Context {
     public static CommandContext parse(MessageReceivedEvent event) {
         String raw = event.getMessage().getRawContent();
 
-        String triggeredPrefix;
-        String input;
-        Matcher mentionMatcher = MENTION_PREFIX.matcher(raw);
+        String triggeredPrefix = null;
+        String prefixType = null;
+        CommandParser.ParsedCommand parsed = null;
+        //with a custom prefix set, the default prefix only works for commands that are meant to be reachable through it
+        boolean defaultPrefixOnly = false;
+        String customPrefix = PrefixRegistry.getCustomPrefix(event.getGuild().getIdLong());
+        int prefixEnd = CommandParser.mentionPrefixEnd(raw, event.getJDA().getSelfUser().getIdLong());
         // either starts with a mention of us
-        if (mentionMatcher.find() && mentionMatcher.group(2).equals(event.getJDA().getSelfUser().getId())) {
-            triggeredPrefix = mentionMatcher.group(1);
-            input = mentionMatcher.group(3).trim();
-            Metrics.prefixParsed.labels("mention").inc();
-        }
-        // or starts with our prefix
-        else if (raw.startsWith(Config.CONFIG.getPrefix())) {
-            triggeredPrefix = Config.CONFIG.getPrefix();
-            input = raw.substring(triggeredPrefix.length());
-            Metrics.prefixParsed.labels("default").inc(); //todo count custom prefix usage
+        if (prefixEnd > 0) {
+            triggeredPrefix = raw.substring(0, prefixEnd);
+            prefixType = "mention";
+            parsed = CommandParser.parseCommand(raw, prefixEnd);
         } else {
+            // or starts with the custom prefix of the guild
+            if (customPrefix != null && raw.startsWith(customPrefix)) {
+                triggeredPrefix = customPrefix;
+                prefixType = "custom";
+                parsed = CommandParser.parseCommand(raw, customPrefix.length());
+            }
+            // or starts with our prefix. also tried when the custom prefix leads nowhere, as it may be the start of
+            // our prefix, like ; is the start of ;;
+            String defaultPrefix = Config.CONFIG.getPrefix();
+            if ((parsed == null || parsed.getEntry() == null) && raw.startsWith(defaultPrefix)) {
+                triggeredPrefix = defaultPrefix;
+                prefixType = "default";
+                parsed = CommandParser.parseCommand(raw, defaultPrefix.length());
+                defaultPrefixOnly = customPrefix != null;
+            }
+        }
+
+        if (triggeredPrefix == null) {
             //no match
             return null;
         }
-        input = input.trim();// eliminate possible whitespace between the mention/prefix and the rest of the input
-        if (input.isEmpty()) {
+        Metrics.prefixParsed.labels(prefixType).inc();
+        if (parsed == null) {
             return null; //no command will be detectable from an empty input
         }
 
-        String[] args = input.split("\\s+"); //split by any length of white space characters (including new lines)
-        if (args.length < 1) {
-            return null; //while this shouldn't technically be possible due to the preprocessing of the input, better be safe than throw exceptions
-        }
-
-        String commandTrigger = args[0];
-
-        CommandRegistry.CommandEntry entry = CommandRegistry.getCommand(commandTrigger.toLowerCase());
+        CommandRegistry.CommandEntry entry = parsed.getEntry();
         if (entry == null) {
-            log.info("Unknown command:\t{}", commandTrigger);
+            log.info("Unknown command:\t{}", parsed.getTrigger());
+            return null;
+        } else if (defaultPrefixOnly && !(entry.command instanceof IDefaultPrefixCommand)) {
             return null;
         } else {
             CommandContext context = new CommandContext(
@@ -127,11 +139,11 @@ public class CommandContext extends Context {
                     event.getMessage());
 
             context.prefix = triggeredPrefix;
-            context.trigger = commandTrigger;
+            context.trigger = parsed.getTrigger();
             context.cmdName = entry.name;
             context.command = entry.command;
-            context.args = Arrays.copyOfRange(args, 1, args.length);//exclude args[0] that contains the command trigger
-            context.rawArgs = input.replaceFirst(commandTrigger, "").trim();
+            context.args = parsed.getArgs();
+            context.rawArgs = parsed.getRawArgs();
             return context;
         }
     }
@@ -150,6 +150,10 @@ public class DatabaseManager {
 
             properties.put("hibernate.hikari.driverClassName", driverClassName);
 
+            //the futures of EntityRepository time out, but that doesn't stop the query behind them. have the driver
+            // cancel statements that run longer than any caller would wait for them, so they give back their connection
+            properties.put("javax.persistence.query.timeout", Long.toString(EntityRepository.BACKGROUND_TIMEOUT_MILLIS));
+
 
             LocalContainerEntityManagerFactoryBean emfb = new LocalContainerEntityManagerFactoryBean();
             emfb.setPackagesToScan("fredboat.db.entity");
@@ -306,6 +310,10 @@ public class DatabaseManager {
         }
     }
 
+    public boolean isPostgres() {
+        return "org.postgresql.Driver".equals(driverClassName);
+    }
+
     public DatabaseState getState() {
         return state;
     }
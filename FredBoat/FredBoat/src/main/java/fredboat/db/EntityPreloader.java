@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import fredboat.FredBoat;
+import fredboat.commandmeta.PrefixRegistry;
+import fredboat.db.entity.GuildConfig;
+import fredboat.db.entity.GuildPermissions;
+import fredboat.feature.metrics.Metrics;
+import fredboat.perms.PermsUtil;
+import io.prometheus.client.Histogram;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Loads the configs and permissions of all guilds of a shard in bulk after the shard became ready, so the first command
+ * of each guild doesn't have to wait for the database.
+ * <p>
+ * Preloading happens in batches on a single thread with a pause between batches, so it never holds more than one
+ * connection of the pool and leaves the database executor to the actual users.
+ */
+public class EntityPreloader {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityPreloader.class);
+
+    private static final int BATCH_SIZE = 500;
+    private static final long PAUSE_BETWEEN_BATCHES_MILLIS = 250;
+    private static final long BATCH_TIMEOUT_MILLIS = 30000;
+
+    private static final ExecutorService preloader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "entity-preloader");
+        thread.setDaemon(true);
+        thread.setPriority(4);
+        return thread;
+    });
+
+    public static void preloadGuilds(JDA jda) {
+        List<String> guildIds = jda.getGuilds().stream()
+                .map(Guild::getId)
+                .collect(Collectors.toList());
+        String shard = jda.getShardInfo() == null ? "shard" : jda.getShardInfo().getShardString();
+
+        preloader.submit(() -> preload(shard, guildIds));
+    }
+
+    private static void preload(String shard, List<String> guildIds) {
+        log.info("Preloading entities of {} guilds for {}", guildIds.size(), shard);
+        Histogram.Timer timer = Metrics.entityPreloadDuration.startTimer();
+        try {
+            for (int i = 0; i < guildIds.size(); i += BATCH_SIZE) {
+                List<String> batch = guildIds.subList(i, Math.min(i + BATCH_SIZE, guildIds.size()));
+                EntityRepository.await(EntityRepository.supply("Preload", "read", () -> {
+                    loadBatch(batch);
+                    return null;
+                }, BATCH_TIMEOUT_MILLIS));
+
+                Thread.sleep(PAUSE_BETWEEN_BATCHES_MILLIS);
+            }
+            log.info("Preloaded entities of {} guilds for {} in {}s", guildIds.size(), shard, timer.observeDuration());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Failed to preload entities for {}, the rest will be loaded on demand", shard, e);
+        }
+    }
+
+    private static void loadBatch(List<String> guildIds) {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+
+        //taken before reading, so permissions changed while we read don't get precompiled with stale lists
+        long[] generations = new long[guildIds.size()];
+        for (int i = 0; i < guildIds.size(); i++) {
+            generations[i] = PermsUtil.generation(Long.parseLong(guildIds.get(i)));
+        }
+
+        List<GuildConfig> configs;
+        List<GuildPermissions> permissions;
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            configs = em.createQuery("SELECT gc FROM GuildConfig gc WHERE gc.guildId IN :ids", GuildConfig.class)
+                    .setParameter("ids", guildIds)
+                    .getResultList();
+            permissions = em.createQuery("SELECT gp FROM GuildPermissions gp WHERE gp.id IN :ids", GuildPermissions.class)
+                    .setParameter("ids", guildIds)
+                    .getResultList();
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+
+        Map<String, GuildConfig> configsById = new HashMap<>();
+        for (GuildConfig config : configs) {
+            configsById.put(config.getGuildId(), config);
+        }
+        Map<String, GuildPermissions> permissionsById = new HashMap<>();
+        for (GuildPermissions gp : permissions) {
+            permissionsById.put(gp.getId(), gp);
+        }
+
+        //guilds without a row get the same fresh entity that EntityReader would have handed out
+        List<GuildConfig> cached = new ArrayList<>(guildIds.size());
+        for (int i = 0; i < guildIds.size(); i++) {
+            String guildId = guildIds.get(i);
+            GuildConfig config = configsById.get(guildId);
+            if (config == null) config = EntityReader.newInstance(guildId, GuildConfig.class);
+            //configs cached in the meantime may be newer than what we read, they are in the prefix registry already
+            if (EntityReader.GUILD_CONFIGS.asMap().putIfAbsent(guildId, config) == null) {
+                cached.add(config);
+            }
+
+            GuildPermissions gp = permissionsById.get(guildId);
+            if (gp == null) gp = EntityReader.newInstance(guildId, GuildPermissions.class);
+            PermsUtil.precompile(Long.parseLong(guildId), generations[i], gp);
+        }
+        PrefixRegistry.updateAll(cached);
+
+        Metrics.entitiesPreloaded.labels("GuildConfig").inc(guildIds.size());
+        Metrics.entitiesPreloaded.labels("GuildPermissions").inc(guildIds.size());
+    }
+}
@@ -26,7 +26,10 @@
 package fredboat.db;
 
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import fredboat.FredBoat;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.db.entity.BlacklistEntry;
 import fredboat.db.entity.GuildConfig;
 import fredboat.db.entity.GuildPermissions;
@@ -39,6 +42,7 @@ import org.slf4j.LoggerFactory;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class EntityReader {
 
@@ -48,8 +52,32 @@ public class EntityReader {
         return getEntity(id, UConfig.class);
     }
 
+    //guild id -> config; kept up to date by EntityWriter and filled in bulk by the EntityPreloader
+    public static final Cache<String, GuildConfig> GUILD_CONFIGS = CacheBuilder.newBuilder()
+            .recordStats()
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
     public static GuildConfig getGuildConfig(String id) {
-        return getEntity(id, GuildConfig.class);
+        GuildConfig config = GUILD_CONFIGS.getIfPresent(id);
+        if (config != null) return config;
+
+        GuildConfig loaded = getEntity(id, GuildConfig.class);
+        //a config written while we were reading is newer than ours, keep that one
+        GuildConfig cached = GUILD_CONFIGS.asMap().putIfAbsent(id, loaded);
+        if (cached != null) {
+            return cached;
+        }
+        PrefixRegistry.update(loaded);
+        return loaded;
+    }
+
+    static void cacheGuildConfig(GuildConfig config) {
+        GUILD_CONFIGS.put(config.getGuildId(), config);
+    }
+
+    static void invalidateGuildConfig(String id) {
+        GUILD_CONFIGS.invalidate(id);
     }
 
     public static GuildPermissions getGuildPermissions(Guild guild) {
@@ -79,7 +107,7 @@ public class EntityReader {
         return config;
     }
 
-    private static <E extends IEntity> E newInstance(String id, Class<E> clazz) {
+    static <E extends IEntity> E newInstance(String id, Class<E> clazz) {
         try {
             E entity = clazz.newInstance();
             entity.setId(id);
@@ -89,6 +117,27 @@ public class EntityReader {
         }
     }
 
+    /**
+     * @return the configs of all guilds that have a custom prefix set
+     */
+    public static List<GuildConfig> loadCustomPrefixes() {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+        EntityManager em = dbManager.getEntityManager();
+        List<GuildConfig> result;
+        try {
+            em.getTransaction().begin();
+            result = em.createQuery("SELECT gc FROM GuildConfig gc WHERE gc.prefix IS NOT NULL", GuildConfig.class)
+                    .getResultList();
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+        return result;
+    }
+
     public static List<BlacklistEntry> loadBlacklist() {
         DatabaseManager dbManager = FredBoat.getDbManager();
         if (dbManager == null || !dbManager.isAvailable()) {
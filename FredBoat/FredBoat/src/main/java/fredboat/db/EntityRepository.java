@@ -0,0 +1,263 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import fredboat.Config;
+import fredboat.db.entity.GuildConfig;
+import fredboat.db.entity.GuildPermissions;
+import fredboat.db.entity.UConfig;
+import fredboat.feature.metrics.Metrics;
+import io.prometheus.client.Histogram;
+import net.dv8tion.jda.core.entities.Guild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous access to the database on top of {@link EntityReader} and {@link EntityWriter}.
+ * <p>
+ * All calls run on bounded executors that together are sized to the connection pool, so they never queue up on the pool
+ * itself, and fail with a {@link DatabaseNotReadyException} when they take longer than the timeout or the executor is
+ * saturated. Prefer this over the blocking calls from JDA event threads and lavaplayer callbacks.
+ * <p>
+ * Reads and writes that someone is waiting for run on the main executor. Cache writes, migrations and other writes
+ * nobody waits for go through {@link #runInBackground(String, String, Runnable)} onto a smaller executor with its own
+ * queue, so that a burst of them can't crowd out the reads of permissions and configs.
+ * Concurrent reads of the same guild config share a single query.
+ */
+public class EntityRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityRepository.class);
+
+    //a bit above the hikari connection timeout, so we hear about a failed db from hikari first
+    public static final long DEFAULT_TIMEOUT_MILLIS = Config.HIKARI_TIMEOUT_MILLISECONDS * 2;
+    //for writes nobody waits for; also the statement timeout of all queries, see DatabaseManager
+    public static final long BACKGROUND_TIMEOUT_MILLIS = DEFAULT_TIMEOUT_MILLIS * 5;
+
+    private static final int POOL_SIZE = Math.max(1, Config.CONFIG.getHikariPoolSize());
+    private static final int BACKGROUND_POOL_SIZE = Math.max(1, POOL_SIZE / 4);
+    private static final int READ_POOL_SIZE = Math.max(1, POOL_SIZE - BACKGROUND_POOL_SIZE);
+
+    private static final ThreadPoolExecutor executor = newExecutor("database-worker-", READ_POOL_SIZE, READ_POOL_SIZE * 64);
+    private static final ThreadPoolExecutor backgroundExecutor = newExecutor("database-background-",
+            BACKGROUND_POOL_SIZE, BACKGROUND_POOL_SIZE * 256);
+
+    //guild id -> read of that guild's config that is currently running
+    private static final Map<String, CompletableFuture<GuildConfig>> guildConfigReads = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "database-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static ThreadPoolExecutor newExecutor(String name, int threads, int queueSize) {
+        AtomicInteger threadCounter = new AtomicInteger(0);
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name + threadCounter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public static ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public static ThreadPoolExecutor getBackgroundExecutor() {
+        return backgroundExecutor;
+    }
+
+    // ################################################################################
+    // ##                              Entities
+    // ################################################################################
+
+    public static CompletableFuture<GuildConfig> getGuildConfig(String id) {
+        return shared(guildConfigReads, id, () -> supply("GuildConfig", "read", () -> EntityReader.getGuildConfig(id)));
+    }
+
+    public static CompletableFuture<GuildPermissions> getGuildPermissions(Guild guild) {
+        return supply("GuildPermissions", "read", () -> EntityReader.getGuildPermissions(guild));
+    }
+
+    /**
+     * @return the read of the given key that is running already, or a new one
+     */
+    private static <T> CompletableFuture<T> shared(Map<String, CompletableFuture<T>> running, String key,
+                                                   Supplier<CompletableFuture<T>> read) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> existing = running.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        read.get().whenComplete((result, t) -> {
+            running.remove(key, created);
+            if (t != null) {
+                created.completeExceptionally(t);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created;
+    }
+
+    public static CompletableFuture<UConfig> getUConfig(String id) {
+        return supply("UConfig", "read", () -> EntityReader.getUConfig(id));
+    }
+
+    public static CompletableFuture<Void> mergeGuildConfig(GuildConfig config) {
+        return run("GuildConfig", "merge", () -> EntityWriter.mergeGuildConfig(config));
+    }
+
+    public static CompletableFuture<Void> mergeGuildPermissions(GuildPermissions guildPermissions) {
+        return run("GuildPermissions", "merge", () -> EntityWriter.mergeGuildPermissions(guildPermissions));
+    }
+
+    public static CompletableFuture<Void> mergeUConfig(UConfig config) {
+        return run("UConfig", "merge", () -> EntityWriter.mergeUConfig(config));
+    }
+
+    // ################################################################################
+    // ##                              Plumbing
+    // ################################################################################
+
+    /**
+     * Run a database operation on the database executor with the default timeout.
+     *
+     * @param entity    name of the entity, used as a metrics label
+     * @param operation name of the operation, used as a metrics label
+     */
+    public static <T> CompletableFuture<T> supply(String entity, String operation, Supplier<T> query) {
+        return supply(entity, operation, query, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public static <T> CompletableFuture<T> supply(String entity, String operation, Supplier<T> query, long timeoutMillis) {
+        return supply(executor, entity, operation, query, timeoutMillis);
+    }
+
+    private static <T> CompletableFuture<T> supply(ThreadPoolExecutor executor, String entity, String operation,
+                                                   Supplier<T> query, long timeoutMillis) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) return; //timed out while waiting in the queue
+                Histogram.Timer timer = Metrics.databaseOperationDuration.labels(entity, operation).startTimer();
+                try {
+                    future.complete(query.get());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    timer.observeDuration();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (executor == backgroundExecutor) {
+                //expected during bursts of cache writes, the metric is enough
+                log.debug("Background database executor saturated, rejecting {} {}", operation, entity);
+            } else {
+                log.warn("Database executor saturated, rejecting {} {}", operation, entity);
+            }
+            Metrics.databaseOperationsRejected.labels(entity, operation).inc();
+            future.completeExceptionally(new DatabaseNotReadyException(e));
+            return future;
+        }
+
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+            if (future.completeExceptionally(new DatabaseNotReadyException(new TimeoutException(
+                    String.format("%s %s timed out after %sms", operation, entity, timeoutMillis))))) {
+                Metrics.databaseOperationsTimedOut.labels(entity, operation).inc();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, t) -> timeout.cancel(false));
+
+        return future;
+    }
+
+    public static CompletableFuture<Void> run(String entity, String operation, Runnable query) {
+        return supply(entity, operation, () -> {
+            query.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run a write that nobody is waiting for, like saving something to a cache table, on the background executor.
+     * These get rejected first when the database can't keep up.
+     */
+    public static CompletableFuture<Void> runInBackground(String entity, String operation, Runnable query) {
+        return supply(backgroundExecutor, entity, operation, () -> {
+            query.run();
+            return null;
+        }, BACKGROUND_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Wait for the result of a database operation, for callers that can't continue without it. The future times out by
+     * itself, so this never blocks longer than the timeout it was created with.
+     *
+     * @throws DatabaseNotReadyException if the operation failed or timed out
+     */
+    public static <T> T await(CompletableFuture<T> future) throws DatabaseNotReadyException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseNotReadyException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DatabaseNotReadyException) {
+                throw (DatabaseNotReadyException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new DatabaseNotReadyException(cause);
+        }
+    }
+
+    /**
+     * Shut down the database executors, letting queued operations finish
+     */
+    public static void shutdown() {
+        executor.shutdown();
+        backgroundExecutor.shutdown();
+        timeouts.shutdown();
+    }
+}
@@ -25,7 +25,9 @@
 
 package fredboat.db;
 
+import fredboat.Config;
 import fredboat.FredBoat;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.db.entity.BlacklistEntry;
 import fredboat.db.entity.GuildConfig;
 import fredboat.db.entity.GuildPermissions;
@@ -41,18 +43,42 @@ public class EntityWriter {
 
     private static final Logger log = LoggerFactory.getLogger(EntityWriter.class);
 
+    //flushed regularly by the WriteBehindAgent
+    private static final WriteBehindQueue writeBehind = new WriteBehindQueue(
+            Config.CONFIG.getWriteBehindBatchSize(), Config.CONFIG.getWriteBehindMaxPending());
+
+    public static WriteBehindQueue getWriteBehind() {
+        return writeBehind;
+    }
+
     public static void mergeUConfig(UConfig config) {
         merge(config);
     }
 
     public static void mergeGuildConfig(GuildConfig config) {
-        merge(config);
+        try {
+            merge(config);
+        } catch (RuntimeException e) {
+            //the cached object may hold changes that didn't make it into the database
+            EntityReader.invalidateGuildConfig(config.getGuildId());
+            throw e;
+        }
+        EntityReader.cacheGuildConfig(config);
+        PrefixRegistry.update(config);
     }
 
     public static void mergeBlacklistEntry(BlacklistEntry ble) {
         merge(ble);
     }
 
+    /**
+     * Merge the blacklist entry with the next flush of the write behind queue instead of right away. The entry is
+     * copied, so call this while holding whatever guards changes to it.
+     */
+    public static void mergeBlacklistEntryDeferred(BlacklistEntry ble) {
+        writeBehind.merge(BlacklistEntry.class, ble.getId(), ble.copy());
+    }
+
     public static void mergeGuildPermissions(GuildPermissions guildPermissions) {
         merge(guildPermissions);
     }
@@ -77,6 +103,9 @@ public class EntityWriter {
     }
 
     public static void deleteBlacklistEntry(long id) {
+        //don't let a pending merge bring it back
+        writeBehind.discard(BlacklistEntry.class, id);
+
         DatabaseManager dbManager = FredBoat.getDbManager();
         if (dbManager == null || !dbManager.isAvailable()) {
             throw new DatabaseNotReadyException("The database is not available currently. Please try again later.");
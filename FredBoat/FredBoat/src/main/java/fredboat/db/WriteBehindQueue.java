@@ -0,0 +1,350 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import fredboat.FredBoat;
+import fredboat.db.entity.IEntity;
+import fredboat.feature.metrics.Metrics;
+import io.prometheus.client.Histogram;
+import org.hibernate.exception.JDBCConnectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers merges of entities and writes them to the database in batches, each batch in a single transaction.
+ * <p>
+ * Repeated merges of the same entity before a flush are coalesced into a single one, the latest merged state wins.
+ * If the database is unavailable the entities stay buffered until it is back, up to a maximum amount of pending
+ * entities after which any further new entities are dropped.
+ * <p>
+ * Entities that fail to be written for reasons other than the database being unreachable are retried on their own, and
+ * dropped after {@value #MAX_ATTEMPTS} failed attempts, so they can't hold up the rest of the queue.
+ * <p>
+ * Only use this for entities where losing the latest state on a crash is acceptable.
+ */
+public class WriteBehindQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final Map<EntityKey, Pending> pending = new ConcurrentHashMap<>();
+    //entities of the batch that is being written right now
+    private final Set<EntityKey> inFlight = ConcurrentHashMap.newKeySet();
+    //entities discarded since they were last merged. a batch that was writing one of them while it got discarded
+    //deletes it again after its write, so discards never have to wait for a batch to finish
+    private final Set<EntityKey> tombstones = ConcurrentHashMap.newKeySet();
+    //only one thread flushes at a time
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final int batchSize;
+    private final int maxPending;
+
+    /**
+     * @param batchSize  how many entities to write per transaction; reaching this many pending entities triggers a flush
+     * @param maxPending maximum pending entities to buffer while the database is unavailable
+     */
+    public WriteBehindQueue(int batchSize, int maxPending) {
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPending = Math.max(this.batchSize, maxPending);
+    }
+
+    /**
+     * Queue the entity to be merged with the next flush.
+     *
+     * @param clazz  class of the entity, together with the id it identifies the entity
+     * @param id     id of the entity
+     * @param entity state of the entity to be written. it is written at some later point, so don't pass an object that
+     *               keeps being changed, pass a copy instead
+     */
+    public void merge(Class<? extends IEntity> clazz, Object id, IEntity entity) {
+        EntityKey key = new EntityKey(clazz, id);
+        if (!pending.containsKey(key) && pending.size() >= maxPending) {
+            log.warn("Write behind buffer is full with {} entities, dropping merge of {}", pending.size(), entity);
+            Metrics.writeBehindDropped.inc();
+            return;
+        }
+        //merged again after a discard, so it is wanted after all
+        tombstones.remove(key);
+        pending.put(key, new Pending(entity, 0));
+        int size = pending.size();
+        Metrics.writeBehindQueueDepth.set(size);
+
+        if (size >= batchSize && !flushLock.isLocked()) {
+            FredBoat.executor.submit(this::flush);
+        }
+    }
+
+    /**
+     * Remove any pending merge of an entity, for example because it is about to be deleted. Never waits for a flush: if
+     * the entity is part of a batch that is being written right now, that batch deletes it again once it is done, so a
+     * delete issued after this returns can't be overwritten by the pending merge.
+     */
+    public void discard(Class<? extends IEntity> clazz, Object id) {
+        EntityKey key = new EntityKey(clazz, id);
+        //the tombstone goes first, so a failed batch that puts its entities back either sees it or gets undone below
+        tombstones.add(key);
+        pending.remove(key);
+        Metrics.writeBehindQueueDepth.set(pending.size());
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Write all pending entities to the database. Does nothing if another thread is flushing already, or if the
+     * database is not available, in which case the entities will be written by a later flush.
+     */
+    public void flush() {
+        if (pending.isEmpty() || !flushLock.tryLock()) {
+            return;
+        }
+        try {
+            flush0();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Write all pending entities to the database, waiting for a flush that is running already to finish first. Use
+     * this on shutdown.
+     */
+    public void flushAndWait() {
+        flushLock.lock();
+        try {
+            flush0();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flush0() {
+        try {
+            while (!pending.isEmpty()) {
+                DatabaseManager dbManager = FredBoat.getDbManager();
+                if (dbManager == null || !dbManager.isAvailable()) {
+                    log.debug("Database not available, keeping {} entities buffered", pending.size());
+                    return;
+                }
+
+                List<Map.Entry<EntityKey, Pending>> batch = takeBatch();
+                boolean written;
+                try {
+                    written = writeBatch(dbManager, batch);
+                } finally {
+                    land(dbManager, batch);
+                }
+                if (!written) {
+                    //try the next batch with the next flush
+                    return;
+                }
+            }
+        } finally {
+            Metrics.writeBehindQueueDepth.set(pending.size());
+        }
+    }
+
+    private List<Map.Entry<EntityKey, Pending>> takeBatch() {
+        List<Map.Entry<EntityKey, Pending>> batch = new ArrayList<>(batchSize);
+        Iterator<EntityKey> keys = pending.keySet().iterator();
+        while (keys.hasNext() && batch.size() < batchSize) {
+            EntityKey key = keys.next();
+            //marked as in flight before leaving the pending ones, so a discard always finds it in one of the two
+            inFlight.add(key);
+            Pending entry = pending.remove(key);
+            if (entry != null) {
+                batch.add(new AbstractMap.SimpleImmutableEntry<>(key, entry));
+            } else {
+                inFlight.remove(key);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Called once the batch has been written or put back. Deletes the entities of the batch again that were discarded
+     * while the batch was in flight.
+     */
+    private void land(DatabaseManager dbManager, List<Map.Entry<EntityKey, Pending>> batch) {
+        for (Map.Entry<EntityKey, Pending> entry : batch) {
+            EntityKey key = entry.getKey();
+            inFlight.remove(key);
+            if (!tombstones.remove(key)) {
+                continue;
+            }
+            EntityManager em = dbManager.getEntityManager();
+            try {
+                em.getTransaction().begin();
+                Object written = em.find(key.clazz, key.id);
+                if (written != null) {
+                    em.remove(written);
+                }
+                em.getTransaction().commit();
+            } catch (PersistenceException e) {
+                log.error("Failed to delete discarded entity {} again", entry.getValue().entity, e);
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+            } finally {
+                em.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the batch in a single transaction. If that fails while the database is reachable, the entities are written
+     * one by one to find the ones that can't be written, those are put back to be retried later.
+     *
+     * @return true if the whole batch has been written, false if not
+     */
+    private boolean writeBatch(DatabaseManager dbManager, List<Map.Entry<EntityKey, Pending>> batch) {
+        Histogram.Timer timer = Metrics.writeBehindFlushDuration.startTimer();
+        try {
+            write(dbManager, batch);
+            Metrics.writeBehindWritten.inc(batch.size());
+            return true;
+        } catch (PersistenceException e) {
+            Metrics.writeBehindFailedFlushes.inc();
+            if (isConnectionProblem(e) || !dbManager.isAvailable()) {
+                log.error("Failed to write a batch of {} entities, database unreachable, will retry", batch.size(), e);
+                putBack(batch, false);
+                return false;
+            }
+            log.error("Failed to write a batch of {} entities, writing them one by one", batch.size(), e);
+        } finally {
+            timer.observeDuration();
+        }
+
+        List<Map.Entry<EntityKey, Pending>> failed = new ArrayList<>();
+        for (Map.Entry<EntityKey, Pending> entry : batch) {
+            try {
+                write(dbManager, Collections.singletonList(entry));
+                Metrics.writeBehindWritten.inc();
+            } catch (PersistenceException e) {
+                log.error("Failed to write {}", entry.getValue().entity, e);
+                failed.add(entry);
+            }
+        }
+        putBack(failed, true);
+        return failed.isEmpty();
+    }
+
+    private void write(DatabaseManager dbManager, List<Map.Entry<EntityKey, Pending>> entries) {
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (Map.Entry<EntityKey, Pending> entry : entries) {
+                em.merge(entry.getValue().entity);
+            }
+            em.getTransaction().commit();
+        } catch (PersistenceException e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Put entities back into the pending ones, unless a newer state has been merged or they have been discarded in the
+     * meantime.
+     *
+     * @param attempted true if this counts as a failed attempt to write them
+     */
+    private void putBack(List<Map.Entry<EntityKey, Pending>> entries, boolean attempted) {
+        for (Map.Entry<EntityKey, Pending> entry : entries) {
+            Pending failed = entry.getValue();
+            int attempts = attempted ? failed.attempts + 1 : failed.attempts;
+            if (attempts >= MAX_ATTEMPTS) {
+                log.error("Giving up on writing {} after {} attempts", failed.entity, attempts);
+                Metrics.writeBehindDropped.inc();
+                continue;
+            }
+            if (tombstones.contains(entry.getKey())) {
+                continue;
+            }
+            pending.putIfAbsent(entry.getKey(), new Pending(failed.entity, attempts));
+        }
+    }
+
+    private static boolean isConnectionProblem(Throwable t) {
+        while (t != null) {
+            if (t instanceof JDBCConnectionException) return true;
+            t = t.getCause();
+        }
+        return false;
+    }
+
+    private static class Pending {
+        private final IEntity entity;
+        //failed attempts to write this entity
+        private final int attempts;
+
+        Pending(IEntity entity, int attempts) {
+            this.entity = entity;
+            this.attempts = attempts;
+        }
+    }
+
+    private static class EntityKey {
+        private final Class<? extends IEntity> clazz;
+        private final Object id;
+
+        EntityKey(Class<? extends IEntity> clazz, Object id) {
+            this.clazz = clazz;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            EntityKey that = (EntityKey) o;
+            return clazz == that.clazz && Objects.equals(id, that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clazz, id);
+        }
+    }
+}
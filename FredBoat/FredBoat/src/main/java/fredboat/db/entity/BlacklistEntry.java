@@ -70,6 +70,19 @@ public class BlacklistEntry implements IEntity {
         this.blacklistedTimestamp = System.currentTimeMillis();
     }
 
+    /**
+     * @return a snapshot of this entry, for writing its current state while this one keeps being changed
+     */
+    public BlacklistEntry copy() {
+        BlacklistEntry copy = new BlacklistEntry();
+        copy.id = id;
+        copy.level = level;
+        copy.rateLimitReached = rateLimitReached;
+        copy.rateLimitReachedTimestamp = rateLimitReachedTimestamp;
+        copy.blacklistedTimestamp = blacklistedTimestamp;
+        return copy;
+    }
+
     @Override
     public void setId(String id) {
         this.id = Long.valueOf(id);
@@ -27,7 +27,9 @@ package fredboat.db.entity;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
 
+import javax.annotation.Nullable;
 import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -49,9 +51,18 @@ public class GuildConfig implements IEntity, Serializable {
     @Column(name = "track_announce", nullable = false)
     private boolean trackAnnounce;
 
+    //keep editing a single announcement message instead of posting a new one for every track
+    @Column(name = "track_announce_edit", nullable = false)
+    @ColumnDefault("false")
+    private boolean trackAnnounceEdit;
+
     @Column(name = "auto_resume", nullable = false)
     private boolean autoResume;
 
+    //null to use the default prefix
+    @Column(name = "prefix")
+    private String prefix;
+
     @Column(name = "lang", nullable = false)
     private String lang = "en_US";
 
@@ -79,6 +90,14 @@ public class GuildConfig implements IEntity, Serializable {
         this.trackAnnounce = trackAnnounce;
     }
 
+    public boolean isTrackAnnounceEdit() {
+        return trackAnnounceEdit;
+    }
+
+    public void setTrackAnnounceEdit(boolean trackAnnounceEdit) {
+        this.trackAnnounceEdit = trackAnnounceEdit;
+    }
+
     public boolean isAutoResume() {
         return autoResume;
     }
@@ -87,6 +106,15 @@ public class GuildConfig implements IEntity, Serializable {
         this.autoResume = autoplay;
     }
 
+    @Nullable
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(@Nullable String prefix) {
+        this.prefix = prefix;
+    }
+
     public String getLang() {
         return lang;
     }
@@ -53,6 +53,10 @@ public class GuildPermissions implements IEntity, Serializable {
 
     public GuildPermissions() {}
 
+    public String getId() {
+        return id;
+    }
+
     @Override
     public void setId(String id) {
         this.id = id;
@@ -0,0 +1,221 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db.entity;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.FredBoat;
+import fredboat.db.DatabaseManager;
+import fredboat.db.DatabaseNotReadyException;
+import fredboat.util.TrackListCodec;
+import fredboat.util.Tuple2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.PersistenceException;
+import javax.persistence.Table;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Caches the resolved tracks of a Spotify playlist at a specific snapshot of it. Spotify gives playlists a new
+ * snapshot id whenever they are changed, so an import of a playlist with an unchanged snapshot id can be served from
+ * this entirely, while an import of a changed playlist only has to search the tracks that were added.
+ */
+@Entity
+@Table(name = "resolved_spotify_playlists", indexes = {
+        @Index(name = "resolved_spotify_playlists_timestamp_idx", columnList = "timestamp")
+})
+public class ResolvedSpotifyPlaylist implements Serializable {
+
+    private static final long serialVersionUID = 3094207385413227712L;
+
+    private static final Logger log = LoggerFactory.getLogger(ResolvedSpotifyPlaylist.class);
+
+    @Id
+    @Column(name = "playlist_id")
+    private String playlistId;
+
+    @Column(name = "snapshot_id")
+    private String snapshotId;
+
+    @Column(name = "timestamp")
+    private long timestamp;
+
+    //search terms, each followed by the track it resolved to, if any, in the format of the TrackListCodec
+    @Lob
+    @Column(name = "tracks")
+    private byte[] tracks;
+
+    //for JPA
+    public ResolvedSpotifyPlaylist() {
+    }
+
+    /**
+     * @param resolved the search terms of the playlist in order, each with the track it resolved to, or null if
+     *                 nothing was found for it
+     */
+    public ResolvedSpotifyPlaylist(AudioPlayerManager playerManager, String playlistId, String snapshotId,
+                                   List<Tuple2<String, AudioTrack>> resolved) {
+        this.playlistId = playlistId;
+        this.snapshotId = snapshotId;
+        this.timestamp = System.currentTimeMillis();
+        this.tracks = TrackListCodec.encodeResolved(playerManager, resolved);
+    }
+
+    /**
+     * @param maxAgeMillis the maximum age of the cached playlist
+     * @return the cached playlist; null for a playlist that has not been resolved before, or resolved too long ago
+     */
+    @Nullable
+    public static ResolvedSpotifyPlaylist find(String playlistId, long maxAgeMillis) throws DatabaseNotReadyException {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+
+        EntityManager em = dbManager.getEntityManager();
+        ResolvedSpotifyPlaylist playlist;
+        try {
+            em.getTransaction().begin();
+            playlist = em.find(ResolvedSpotifyPlaylist.class, playlistId);
+            em.getTransaction().commit();
+        } catch (PersistenceException e) {
+            log.error("Unexpected error while trying to look up resolved spotify playlist {}", playlistId, e);
+            throw new DatabaseNotReadyException(e);
+        } finally {
+            em.close();
+        }
+
+        if (playlist != null && System.currentTimeMillis() < playlist.timestamp + maxAgeMillis) {
+            return playlist;
+        } else {
+            return null;
+        }
+    }
+
+    public ResolvedSpotifyPlaylist save() {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            ResolvedSpotifyPlaylist managed = em.merge(this);
+            em.getTransaction().commit();
+            return managed;
+        } catch (PersistenceException e) {
+            log.error("Unexpected error while saving resolved spotify playlist {}", playlistId, e);
+            throw new DatabaseNotReadyException(e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * @return the amount of deleted playlists
+     */
+    public static int deleteOlderThan(long cutoffMillis) throws DatabaseNotReadyException {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            int deleted = em.createQuery("DELETE FROM ResolvedSpotifyPlaylist rsp WHERE rsp.timestamp < :cutoff")
+                    .setParameter("cutoff", cutoffMillis)
+                    .executeUpdate();
+            em.getTransaction().commit();
+            return deleted;
+        } catch (PersistenceException e) {
+            log.error("Unexpected error while deleting resolved spotify playlists", e);
+            throw new DatabaseNotReadyException(e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * @return the search terms of the playlist in order, each with the track it resolved to, or null if nothing was
+     * found for it. Empty if the stored data can't be decoded.
+     */
+    public List<Tuple2<String, AudioTrack>> decode(AudioPlayerManager playerManager) {
+        if (tracks == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return TrackListCodec.decodeResolved(playerManager, tracks);
+        } catch (IOException e) {
+            log.warn("Could not decode resolved spotify playlist {}", playlistId, e);
+            return Collections.emptyList();
+        }
+    }
+
+    public String getPlaylistId() {
+        return playlistId;
+    }
+
+    public void setPlaylistId(String playlistId) {
+        this.playlistId = playlistId;
+    }
+
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    public void setSnapshotId(String snapshotId) {
+        this.snapshotId = snapshotId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public byte[] getTracks() {
+        return tracks;
+    }
+
+    public void setTracks(byte[] tracks) {
+        this.tracks = tracks;
+    }
+}
@@ -26,36 +26,37 @@
 package fredboat.db.entity;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
-import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
-import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
-import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
 import fredboat.FredBoat;
 import fredboat.db.DatabaseManager;
 import fredboat.db.DatabaseNotReadyException;
+import fredboat.db.EntityRepository;
+import fredboat.util.TrackListCodec;
 import fredboat.util.rest.SearchUtil;
+import org.apache.commons.lang3.SerializationException;
 import org.apache.commons.lang3.SerializationUtils;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.query.NativeQuery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import javax.persistence.Entity;
 import javax.persistence.EntityManager;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 import javax.persistence.Table;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
 
 /**
@@ -64,7 +65,11 @@ import java.util.Objects;
  * Caches a search result
  */
 @Entity
-@Table(name = "search_results")
+@Table(name = "search_results", indexes = {
+        //for the batched deletes of expired and least recently used search results
+        @Index(name = "search_results_timestamp_idx", columnList = "timestamp"),
+        @Index(name = "search_results_last_accessed_idx", columnList = "last_accessed")
+})
 @Cacheable
 @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE, region = "search_results")
 //todo after introducing the db refactoring in the persistent tracklists PR:
@@ -82,6 +87,11 @@ public class SearchResult implements Serializable {
     @Column(name = "timestamp")
     private long timestamp;
 
+    //roughly when this search result was last used, used to evict the least recently used ones
+    @Column(name = "last_accessed", nullable = false)
+    @ColumnDefault("0")
+    private long lastAccessed;
+
     @Lob
     @Column(name = "search_result")
     private byte[] serializedSearchResult;
@@ -94,7 +104,8 @@ public class SearchResult implements Serializable {
                         AudioPlaylist searchResult) {
         this.searchResultId = new SearchResultId(provider, searchTerm);
         this.timestamp = System.currentTimeMillis();
-        this.serializedSearchResult = SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
+        this.lastAccessed = this.timestamp;
+        this.serializedSearchResult = TrackListCodec.encodePlaylist(playerManager, searchResult);
     }
 
     /**
@@ -102,10 +113,23 @@ public class SearchResult implements Serializable {
      * @param provider      the search provider that shall be used for this search
      * @param searchTerm    the query to search for
      * @param maxAgeMillis  the maximum age of the cached search result; provide a negative value for eternal cache
-     * @return the cached search result; may return null for a non-existing or outdated search
+     * @return the cached search result; may return null for a non-existing, outdated or undecodable search
      */
     public static AudioPlaylist load(AudioPlayerManager playerManager, SearchUtil.SearchProvider provider,
                                      String searchTerm, long maxAgeMillis) throws DatabaseNotReadyException {
+        SearchResult sr = find(provider, searchTerm, maxAgeMillis);
+        return sr == null ? null : sr.decodeSearchResult(playerManager);
+    }
+
+    /**
+     * @param provider     the search provider that shall be used for this search
+     * @param searchTerm   the query to search for
+     * @param maxAgeMillis the maximum age of the cached search result; provide a negative value for eternal cache
+     * @return the cached search result entity; may return null for a non-existing or outdated search
+     */
+    @Nullable
+    public static SearchResult find(SearchUtil.SearchProvider provider, String searchTerm, long maxAgeMillis)
+            throws DatabaseNotReadyException {
         DatabaseManager dbManager = FredBoat.getDbManager();
         if (dbManager == null || !dbManager.isAvailable()) {
             throw new DatabaseNotReadyException();
@@ -126,12 +150,28 @@ public class SearchResult implements Serializable {
         }
 
         if (sr != null && (maxAgeMillis < 0 || System.currentTimeMillis() < sr.timestamp + maxAgeMillis)) {
-            return sr.getSearchResult(playerManager);
+            return sr;
         } else {
             return null;
         }
     }
 
+    /**
+     * Decode the search result, and migrate it to the current storage format if it is stored in the legacy one
+     *
+     * @return the decoded search result, or null if it can't be decoded, which should be treated like a cache miss
+     */
+    @Nullable
+    public AudioPlaylist decodeSearchResult(AudioPlayerManager playerManager) {
+        AudioPlaylist result = getSearchResult(playerManager);
+        if (result != null && isLegacyFormat()) {
+            //migrate rows in the old java serialized format as we come across them
+            setSearchResult(playerManager, result);
+            EntityRepository.runInBackground("SearchResult", "migrate", this::save);
+        }
+        return result;
+    }
+
     /**
      * Persist a search in the database.
      *
@@ -158,6 +198,113 @@ public class SearchResult implements Serializable {
         }
     }
 
+    /**
+     * Delete a batch of search results that were retrieved before the cutoff.
+     *
+     * @return the amount of deleted search results
+     */
+    public static int deleteOlderThan(long cutoffMillis, int batchSize) throws DatabaseNotReadyException {
+        return executeBatch("DELETE FROM search_results WHERE (provider, search_term) IN "
+                + "(SELECT provider, search_term FROM search_results WHERE timestamp < :cutoff LIMIT :batch)",
+                cutoffMillis, batchSize);
+    }
+
+    /**
+     * Delete a batch of the least recently used search results.
+     *
+     * @return the amount of deleted search results
+     */
+    public static int deleteLeastRecentlyUsed(int batchSize) throws DatabaseNotReadyException {
+        return executeBatch("DELETE FROM search_results WHERE (provider, search_term) IN "
+                + "(SELECT provider, search_term FROM search_results ORDER BY last_accessed ASC LIMIT :batch)",
+                null, batchSize);
+    }
+
+    private static int executeBatch(String sql, @Nullable Long cutoffMillis, int batchSize) {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            Query query = em.createNativeQuery(sql)
+                    .setParameter("batch", batchSize);
+            if (cutoffMillis != null) {
+                query.setParameter("cutoff", cutoffMillis);
+            }
+            //only invalidate the second level cache region of search results, instead of all of them
+            query.unwrap(NativeQuery.class).addSynchronizedEntityClass(SearchResult.class);
+            int deleted = query.executeUpdate();
+            em.getTransaction().commit();
+            return deleted;
+        } catch (PersistenceException e) {
+            log.error("Unexpected error while deleting search results", e);
+            throw new DatabaseNotReadyException(e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * @return roughly the amount of search results. On postgres this is the planner's estimate, which is kept up to date
+     * by autovacuum and doesn't need to scan the table like a COUNT does. Falls back to counting if there is no estimate
+     * yet, and on sqlite, where the table stays small.
+     */
+    public static long estimateRows() throws DatabaseNotReadyException {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            long count = -1;
+            if (dbManager.isPostgres()) {
+                Number estimate = (Number) em.createNativeQuery(
+                        "SELECT reltuples FROM pg_class WHERE oid = 'search_results'::regclass").getSingleResult();
+                count = estimate.longValue();
+            }
+            if (count <= 0) {
+                count = em.createQuery("SELECT COUNT(sr) FROM SearchResult sr", Long.class).getSingleResult();
+            }
+            em.getTransaction().commit();
+            return count;
+        } catch (PersistenceException e) {
+            throw new DatabaseNotReadyException(e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * @return size of the search results table including indices and toasted data in bytes, or -1 if the database
+     * can't tell us (it's not postgres)
+     */
+    public static long tableSizeBytes() throws DatabaseNotReadyException {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+        if (!dbManager.isPostgres()) {
+            return -1;
+        }
+
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            Number size = (Number) em.createNativeQuery("SELECT pg_total_relation_size('search_results')").getSingleResult();
+            em.getTransaction().commit();
+            return size.longValue();
+        } catch (PersistenceException e) {
+            throw new DatabaseNotReadyException(e);
+        } finally {
+            em.close();
+        }
+    }
+
     public SearchResultId getId() {
         return searchResultId;
     }
@@ -186,13 +333,42 @@ public class SearchResult implements Serializable {
         this.timestamp = timestamp;
     }
 
+    public long getLastAccessed() {
+        return lastAccessed;
+    }
+
+    public void setLastAccessed(long lastAccessed) {
+        this.lastAccessed = lastAccessed;
+    }
+
+    /**
+     * @return the decoded search result, or null if it can't be decoded
+     */
+    @Nullable
     public AudioPlaylist getSearchResult(AudioPlayerManager playerManager) {
-        SerializableAudioPlaylist sap = SerializationUtils.deserialize(serializedSearchResult);
-        return sap.decode(playerManager);
+        try {
+            if (isLegacyFormat()) {
+                SerializableAudioPlaylist sap = SerializationUtils.deserialize(serializedSearchResult);
+                return sap.decode(playerManager);
+            }
+            return TrackListCodec.decodePlaylist(playerManager, serializedSearchResult);
+        } catch (IOException | SerializationException e) {
+            log.warn("Failed to decode search result for provider {} and search term {}",
+                    searchResultId.provider, searchResultId.searchTerm, e);
+            return null;
+        }
     }
 
     public void setSearchResult(AudioPlayerManager playerManager, AudioPlaylist searchResult) {
-        this.serializedSearchResult = SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
+        this.serializedSearchResult = TrackListCodec.encodePlaylist(playerManager, searchResult);
+    }
+
+    /**
+     * @return true if the search result is stored as a java serialized SerializableAudioPlaylist, which is how they
+     * were stored before the compact {@link TrackListCodec} format
+     */
+    public boolean isLegacyFormat() {
+        return !TrackListCodec.isEncoded(serializedSearchResult);
     }
 
     /**
@@ -249,6 +425,9 @@ public class SearchResult implements Serializable {
     }
 
 
+    /**
+     * Legacy storage format of search results, only used to read rows that have not been migrated yet
+     */
     private static class SerializableAudioPlaylist implements Serializable {
         private static final long serialVersionUID = -6823555858689776338L;
 
@@ -261,81 +440,11 @@ public class SearchResult implements Serializable {
         SerializableAudioPlaylist() {
         }
 
-        public SerializableAudioPlaylist(AudioPlayerManager playerManager, AudioPlaylist audioPlaylist) {
-            this.name = audioPlaylist.getName();
-            this.tracks = encodeTracks(playerManager, audioPlaylist.getTracks());
-            this.selectedTrack = encodeTrack(playerManager, audioPlaylist.getSelectedTrack());
-            this.isSearchResult = audioPlaylist.isSearchResult();
-        }
-
         public AudioPlaylist decode(AudioPlayerManager playerManager) {
             return new BasicAudioPlaylist(name,
-                    decodeTracks(playerManager, tracks),
-                    decodeTrack(playerManager, selectedTrack),
+                    TrackListCodec.decodeTracks(playerManager, tracks),
+                    TrackListCodec.decodeTrack(playerManager, selectedTrack),
                     isSearchResult);
         }
-
-        private static byte[][] encodeTracks(AudioPlayerManager playerManager, List<AudioTrack> tracks) {
-            if (tracks == null) {
-                return new byte[0][];
-            }
-
-            byte[][] encoded = new byte[tracks.size()][];
-            int skipped = 0;
-            for (int i = 0; i < tracks.size(); i++) {
-                encoded[i] = encodeTrack(playerManager, tracks.get(i));
-                if (encoded[i] == null) {
-                    skipped++;
-                }
-            }
-
-            byte[][] result = new byte[tracks.size() - skipped][];
-            int i = 0;
-            for (byte[] encodedTrack : encoded) {
-                if (encodedTrack != null) {
-                    result[i] = encodedTrack;
-                    i++;
-                }
-            }
-
-            return result;
-        }
-
-        //may return null if the encoding fails or the input is null
-        private static byte[] encodeTrack(AudioPlayerManager playerManager, AudioTrack track) {
-            if (track == null) {
-                return null;
-            }
-            try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                playerManager.encodeTrack(new MessageOutput(baos), track);
-                return baos.toByteArray();
-            } catch (IOException ignored) {
-                return null;
-            }
-        }
-
-        private static List<AudioTrack> decodeTracks(AudioPlayerManager playerManager, byte[][] input) {
-            List<AudioTrack> result = new ArrayList<>();
-            if (input == null) return result;
-
-            for (byte[] track : input) {
-                AudioTrack decoded = decodeTrack(playerManager, track);
-                if (decoded != null) {
-                    result.add(decoded);
-                }
-            }
-            return result;
-        }
-
-        //may return null if the decoding fails or the input is null
-        private static AudioTrack decodeTrack(AudioPlayerManager playerManager, byte[] input) {
-            if (input == null) return null;
-            ByteArrayInputStream bais = new ByteArrayInputStream(input);
-            try {
-                return playerManager.decodeTrack(new MessageInput(bais)).decodedTrack;
-            } catch (IOException e) {
-                return null;
-            }
-        }
     }
 }
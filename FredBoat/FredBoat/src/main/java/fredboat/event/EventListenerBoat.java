@@ -33,13 +33,16 @@ import fredboat.command.maintenance.ShardsCommand;
 import fredboat.command.maintenance.StatsCommand;
 import fredboat.command.music.control.SkipCommand;
 import fredboat.command.util.HelpCommand;
+import fredboat.commandmeta.CommandExecutors;
 import fredboat.commandmeta.CommandManager;
+import fredboat.commandmeta.PrefixRegistry;
 import fredboat.commandmeta.abs.CommandContext;
-import fredboat.db.EntityReader;
+import fredboat.db.EntityRepository;
 import fredboat.feature.I18n;
 import fredboat.feature.metrics.Metrics;
 import fredboat.feature.togglz.FeatureFlags;
 import fredboat.messaging.CentralMessaging;
+import fredboat.perms.PermsUtil;
 import fredboat.util.DiscordUtil;
 import fredboat.util.Tuple2;
 import fredboat.util.ratelimit.Ratelimiter;
@@ -50,6 +53,10 @@ import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.VoiceChannel;
 import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.core.events.guild.update.GuildUpdateOwnerEvent;
 import net.dv8tion.jda.core.events.guild.voice.GuildVoiceJoinEvent;
 import net.dv8tion.jda.core.events.guild.voice.GuildVoiceLeaveEvent;
 import net.dv8tion.jda.core.events.guild.voice.GuildVoiceMoveEvent;
@@ -57,6 +64,8 @@ import net.dv8tion.jda.core.events.http.HttpRequestEvent;
 import net.dv8tion.jda.core.events.message.MessageDeleteEvent;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.core.events.message.priv.PrivateMessageReceivedEvent;
+import net.dv8tion.jda.core.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.core.events.role.update.RoleUpdatePermissionsEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -139,24 +148,34 @@ public class EventListenerBoat extends AbstractEventListener {
         }
 
         if (ratelimiterResult.a) {
-            Histogram.Timer executionTimer = null;
-            if (FeatureFlags.FULL_METRICS.isActive()) {
-                executionTimer = Metrics.executionTime.labels(context.command.getClass().getSimpleName()).startTimer();
-            }
-            try {
-                CommandManager.prefixCalled(context);
-            } finally {
-                //NOTE: Some commands, like ;;mal, run async and will not reflect the real performance of FredBoat
-                if (FeatureFlags.FULL_METRICS.isActive() && executionTimer != null) {
-                    executionTimer.observeDuration();
+            //have the permissions loaded while the command waits for its executor, instead of blocking on them there
+            PermsUtil.prefetch(context.guild);
+            //get off the JDA event thread, so slow commands don't hold up the event dispatch of the whole shard
+            boolean accepted = CommandExecutors.execute(context.command, context.guild.getIdLong(), () -> {
+                Histogram.Timer executionTimer = null;
+                if (FeatureFlags.FULL_METRICS.isActive()) {
+                    executionTimer = Metrics.executionTime.labels(context.command.getClass().getSimpleName()).startTimer();
+                }
+                try {
+                    CommandManager.prefixCalled(context);
+                } catch (Exception e) {
+                    log.error("Uncaught exception while running command {}", context.cmdName, e);
+                } finally {
+                    //NOTE: Some commands, like ;;mal, run async and will not reflect the real performance of FredBoat
+                    if (FeatureFlags.FULL_METRICS.isActive() && executionTimer != null) {
+                        executionTimer.observeDuration();
+                    }
                 }
+            });
+            if (!accepted) {
+                context.replyWithMention(context.i18n("commandsBusy"));
             }
         } else {
             String out = context.i18n("ratelimitedGeneralInfo");
             if (ratelimiterResult.b == SkipCommand.class) { //we can compare classes with == as long as we are using the same classloader (which we are)
                 //add a nice reminder on how to skip more than 1 song
                 out += "\n" + context.i18nFormat("ratelimitedSkipCommand",
-                        "`" + Config.CONFIG.getPrefix() + "skip n-m`");
+                        "`" + PrefixRegistry.getPrefix(context.guild.getIdLong()) + "skip n-m`");
             }
             context.replyWithMention(out);
         }
@@ -238,19 +257,34 @@ public class EventListenerBoat extends AbstractEventListener {
 
         GuildPlayer player = PlayerRegistry.getExisting(guild);
 
-        if (player != null
-                && player.isPaused()
-                && player.getPlayingTrack() != null
-                && joinedChannel.getMembers().contains(guild.getSelfMember())
-                && player.getHumanUsersInCurrentVC().size() > 0
-                && EntityReader.getGuildConfig(guild.getId()).isAutoResume()
-                ) {
+        if (!shouldAutoResume(player, joinedChannel)) {
+            return;
+        }
+
+        //don't block the event thread with the database lookup
+        EntityRepository.getGuildConfig(guild.getId()).whenComplete((config, t) -> {
+            if (t != null) {
+                log.warn("Could not look up auto resume config of guild {}", guild.getId(), t);
+                return;
+            }
+            //the state might have changed while we were waiting for the database
+            if (!config.isAutoResume() || !shouldAutoResume(player, joinedChannel)) {
+                return;
+            }
             player.setPause(false);
             TextChannel activeTextChannel = player.getActiveTextChannel();
             if (activeTextChannel != null) {
                 CentralMessaging.sendMessage(activeTextChannel, I18n.get(guild).getString("eventAutoResumed"));
             }
-        }
+        });
+    }
+
+    private boolean shouldAutoResume(GuildPlayer player, VoiceChannel joinedChannel) {
+        return player != null
+                && player.isPaused()
+                && player.getPlayingTrack() != null
+                && joinedChannel.getMembers().contains(joinedChannel.getGuild().getSelfMember())
+                && player.getHumanUsersInCurrentVC().size() > 0;
     }
 
     private void checkForAutoPause(VoiceChannel channelLeft) {
@@ -287,6 +321,39 @@ public class EventListenerBoat extends AbstractEventListener {
     @Override
     public void onGuildLeave(GuildLeaveEvent event) {
         PlayerRegistry.destroyPlayer(event.getGuild());
+        PermsUtil.invalidateGuild(event.getGuild().getIdLong());
+    }
+
+    /* permissions related */
+    @Override
+    public void onGuildMemberRoleAdd(GuildMemberRoleAddEvent event) {
+        PermsUtil.invalidateMember(event.getGuild().getIdLong(), event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent event) {
+        PermsUtil.invalidateMember(event.getGuild().getIdLong(), event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberLeave(GuildMemberLeaveEvent event) {
+        PermsUtil.invalidateMember(event.getGuild().getIdLong(), event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGuildUpdateOwner(GuildUpdateOwnerEvent event) {
+        //the owner has all discord permissions, which the resolved levels of both the old and the new owner depend on
+        PermsUtil.invalidateMembers(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onRoleUpdatePermissions(RoleUpdatePermissionsEvent event) {
+        PermsUtil.invalidateMembers(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onRoleDelete(RoleDeleteEvent event) {
+        PermsUtil.invalidateMembers(event.getGuild().getIdLong());
     }
 
     @Override
@@ -27,6 +27,7 @@ package fredboat.feature;
 
 import fredboat.db.DatabaseNotReadyException;
 import fredboat.db.EntityReader;
+import fredboat.db.EntityRepository;
 import fredboat.db.EntityWriter;
 import fredboat.db.entity.GuildConfig;
 import net.dv8tion.jda.core.entities.Guild;
@@ -35,18 +36,40 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.text.MessageFormat;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class I18n {
 
     private static final Logger log = LoggerFactory.getLogger(I18n.class);
 
+    //how long to wait for the config of a guild that isn't cached, before answering in the default language
+    private static final long CONFIG_READ_TIMEOUT_MILLIS = 500;
+
     public static FredBoatLocale DEFAULT = new FredBoatLocale(new Locale("en","US"), "en_US", "English");
     public static final HashMap<String, FredBoatLocale> LANGS = new HashMap<>();
 
+    //parsing a pattern is the expensive part of MessageFormat#format, so we keep the parsed formats around.
+    // MessageFormat is not thread safe, so each thread gets its own, like the message builders in CentralMessaging.
+    // keyed by the pattern itself: the strings of a ResourceBundle are the same instances on every lookup, so their
+    // hash is cached, and a key missing in one language and falling back to the default language shares the format.
+    private static final int MAX_FORMATS_PER_THREAD = 2000;
+    private static final ThreadLocal<Map<String, MessageFormat>> threadLocalFormats = ThreadLocal.withInitial(
+            () -> new LinkedHashMap<String, MessageFormat>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MessageFormat> eldest) {
+                    return size() > MAX_FORMATS_PER_THREAD;
+                }
+            });
+
     public static void start() {
         LANGS.put("en_US", DEFAULT);
         LANGS.put("af_ZA", new FredBoatLocale(new Locale("af", "ZA"), "af_ZA", "Afrikaans"));
@@ -88,22 +111,52 @@ public class I18n {
         return getLocale(guild).getProps();
     }
 
+    /**
+     * If the config of the guild isn't cached, this waits a short while for it to be loaded, joining any load of it
+     * that is running already. Only if the database doesn't answer in time, the default locale is used.
+     */
     public static FredBoatLocale getLocale(Guild guild) {
-        GuildConfig config;
-
-        try {
-            config = EntityReader.getGuildConfig(guild.getId());
-        } catch (DatabaseNotReadyException e) {
-            //don't log spam the full exceptions or logs
-            return DEFAULT;
-        } catch (Exception e) {
-            log.error("Error when reading entity", e);
+        GuildConfig config = EntityReader.GUILD_CONFIGS.getIfPresent(guild.getId());
+        if (config == null) {
+            try {
+                config = EntityRepository.getGuildConfig(guild.getId())
+                        .get(CONFIG_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return DEFAULT;
+            } catch (TimeoutException e) {
+                //the load keeps going, later calls will find the config in the cache
+                log.debug("Timed out loading the config of guild {}", guild.getId());
+                return DEFAULT;
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof DatabaseNotReadyException)) {
+                    //don't log spam the full exceptions or logs of an unavailable database
+                    log.error("Error when reading entity", e.getCause());
+                }
+                return DEFAULT;
+            }
+        }
+        if (config == null) {
             return DEFAULT;
         }
 
         return LANGS.getOrDefault(config.getLang(), DEFAULT);
     }
 
+    /**
+     * Same as {@link MessageFormat#format(String, Object...)}, but reuses the parsed pattern.
+     */
+    @Nonnull
+    public static String format(@Nonnull String pattern, Object... params) {
+        Map<String, MessageFormat> formats = threadLocalFormats.get();
+        MessageFormat format = formats.get(pattern);
+        if (format == null) {
+            format = new MessageFormat(pattern);
+            formats.put(pattern, format);
+        }
+        return format.format(params, new StringBuffer(), null).toString();
+    }
+
     public static void set(Guild guild, String lang) throws LanguageNotSupportedException {
         if (!LANGS.containsKey(lang))
             throw new LanguageNotSupportedException("Language not found");
@@ -30,9 +30,12 @@ import com.zaxxer.hikari.metrics.prometheus.PrometheusMetricsTrackerFactory;
 import fredboat.FredBoat;
 import fredboat.agent.FredBoatAgent;
 import fredboat.audio.player.VideoSelection;
+import fredboat.db.EntityReader;
 import fredboat.feature.metrics.collectors.FredBoatCollector;
 import fredboat.feature.metrics.collectors.ThreadPoolCollector;
+import fredboat.perms.PermsUtil;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
 import io.prometheus.client.hibernate.HibernateStatisticsCollector;
@@ -98,6 +101,8 @@ public class Metrics {
 
         //add one of our guava caches that is only statically reachable
         cacheMetrics.addCache("videoSelections", VideoSelection.SELECTIONS);
+        cacheMetrics.addCache("compiledPermissions", PermsUtil.COMPILED_PERMISSIONS);
+        cacheMetrics.addCache("guildConfigs", EntityReader.GUILD_CONFIGS);
 
         try {
             fredBoatCollector.register();
@@ -134,6 +139,30 @@ public class Metrics {
             .labelNames("error_response_code") //Use the error response codes like: 50013, 10008 etc
             .register();
 
+    public static final Counter coalescedMessages = Counter.build()
+            .name("fredboat_coalesced_messages_total")
+            .help("Total messages that were merged into another message instead of being sent on their own")
+            .register();
+
+    public static final Gauge outboundMessagesQueued = Gauge.build()
+            .name("fredboat_outbound_messages_queued_current")
+            .help("Messages waiting in the per channel send queues")
+            .labelNames("priority") // reply, error, announcement
+            .register();
+
+    public static final Counter outboundMessagesDropped = Counter.build()
+            .name("fredboat_outbound_messages_dropped_total")
+            .help("Total queued messages that were dropped because a newer message superseded them")
+            .labelNames("priority") // reply, error, announcement
+            .register();
+
+    public static final Histogram outboundMessageLatency = Histogram.build()
+            .name("fredboat_outbound_message_latency_seconds")
+            .help("Time from queueing a message until Discord answered the request to send it")
+            .labelNames("priority", "outcome") // reply, error, announcement; success, failure
+            .buckets(0.05, 0.1, 0.25, 0.5, 1, 2, 5, 10, 30, 60)
+            .register();
+
 
     // ################################################################################
     // ##                        FredBoat Stats
@@ -158,6 +187,11 @@ public class Metrics {
             .labelNames("class") // use the simple name of the command class
             .register();
 
+    public static final Gauge ratelimitBuckets = Gauge.build()
+            .name("fredboat_ratelimit_buckets_current")
+            .help("Users and guilds currently tracked by the ratelimits, after the last sweep of idle ones")
+            .register();
+
 
     //music stuff
 
@@ -169,7 +203,83 @@ public class Metrics {
     public static final Counter searchHits = Counter.build()//actual sources of the returned results
             .name("fredboat_music_search_hits_total")
             .help("Total search hits")
-            .labelNames("source") //cache, youtube, soundcloud etc
+            .labelNames("source") //cache-memory, cache-database, youtube, soundcloud etc
+            .register();
+
+    public static final Histogram searchDuration = Histogram.build()
+            .name("fredboat_music_search_duration_seconds")
+            .help("Time it takes to answer a search request")
+            .labelNames("mode", "outcome") // sequential, hedged; result, empty, exception
+            .buckets(0.01, 0.05, 0.1, 0.25, 0.5, 1, 2, 3, 5, 10, 30)
+            .register();
+
+    public static final Histogram searchProviderDuration = Histogram.build()
+            .name("fredboat_music_search_provider_duration_seconds")
+            .help("Time it takes a search provider to answer, not including cache lookups")
+            .labelNames("provider", "outcome") // youtube, soundcloud; result, empty, exception, cancelled
+            .buckets(0.05, 0.1, 0.25, 0.5, 1, 2, 3, 5, 10, 30)
+            .register();
+
+    public static final Gauge circuitBreakerState = Gauge.build()
+            .name("fredboat_circuit_breaker_state_current")
+            .help("State of the circuit breakers guarding calls to upstream services, 0 = closed, 1 = open, 2 = half open")
+            .labelNames("name") // search-youtube, youtube-api, spotify-api, paste-hastebin etc
+            .register();
+
+    public static final Counter circuitBreakerCalls = Counter.build()
+            .name("fredboat_circuit_breaker_calls_total")
+            .help("Total calls to upstream services by their outcome, each call has exactly one outcome")
+            .labelNames("name", "outcome") // success, failure, slow, rejected, cancelled
+            .register();
+
+    public static final Gauge spotifyImportsActive = Gauge.build()
+            .name("fredboat_music_spotify_imports_active_current")
+            .help("Spotify playlist imports currently being resolved")
+            .register();
+
+    public static final Gauge spotifyTracksPending = Gauge.build()
+            .name("fredboat_music_spotify_tracks_pending_current")
+            .help("Tracks of Spotify playlist imports waiting to be resolved")
+            .register();
+
+    public static final Counter spotifyTracksResolved = Counter.build()
+            .name("fredboat_music_spotify_tracks_resolved_total")
+            .help("Total tracks of Spotify playlist imports resolved")
+            .labelNames("outcome") // found, missing, failed, cached
+            .register();
+
+    public static final Counter spotifyPlaylistCache = Counter.build()
+            .name("fredboat_music_spotify_playlist_cache_total")
+            .help("Total lookups of resolved Spotify playlists in the cache")
+            .labelNames("outcome") // hit, changed, miss
+            .register();
+
+    //fun stuff
+    public static final Counter imageCacheLookups = Counter.build()
+            .name("fredboat_image_cache_lookups_total")
+            .help("Total requests for images served as files")
+            .labelNames("outcome") // hit, miss, joined
+            .register();
+
+    public static final Counter imageCacheEvictions = Counter.build()
+            .name("fredboat_image_cache_evictions_total")
+            .help("Total cached images deleted to stay within the bounds of the cache")
+            .register();
+
+    public static final Gauge imageCacheFiles = Gauge.build()
+            .name("fredboat_image_cache_files_current")
+            .help("Images currently cached on disk")
+            .register();
+
+    public static final Gauge imageCacheBytes = Gauge.build()
+            .name("fredboat_image_cache_bytes_current")
+            .help("Size of the images currently cached on disk")
+            .register();
+
+    public static final Histogram spotifyImportDuration = Histogram.build()
+            .name("fredboat_music_spotify_import_duration_seconds")
+            .help("Time it takes to resolve all tracks of a Spotify playlist import")
+            .buckets(1, 5, 10, 30, 60, 120, 300, 600, 1800)
             .register();
 
     public static final Counter tracksLoaded = Counter.build()
@@ -208,6 +318,12 @@ public class Metrics {
             .labelNames("class") // use the simple name of the command class: PlayCommand, DanceCommand, ShardsCommand etc
             .register();
 
+    public static final Counter commandsRejected = Counter.build()
+            .name("fredboat_commands_rejected_total")
+            .help("Total commands turned away because the executor of their category was saturated")
+            .labelNames("category") // music, fun, util, moderation, maintenance, other
+            .register();
+
     public static final Histogram executionTime = Histogram.build()//commands execution time, excluding ratelimited ones
             .name("fredboat_command_execution_duration_seconds")
             .help("Command execution time, excluding handling ratelimited commands.")
@@ -248,4 +364,75 @@ public class Metrics {
             .help("Total database exceptions created")
             .register();
 
+    public static final Histogram databaseOperationDuration = Histogram.build()
+            .name("fredboat_db_operation_duration_seconds")
+            .help("Duration of asynchronous database operations, excluding time spent waiting in the queue")
+            .labelNames("entity", "operation") // GuildConfig, SearchResult etc; read, merge etc
+            .register();
+
+    public static final Counter databaseOperationsTimedOut = Counter.build()
+            .name("fredboat_db_operations_timed_out_total")
+            .help("Total asynchronous database operations that timed out")
+            .labelNames("entity", "operation")
+            .register();
+
+    public static final Counter databaseOperationsRejected = Counter.build()
+            .name("fredboat_db_operations_rejected_total")
+            .help("Total asynchronous database operations rejected due to a saturated database executor")
+            .labelNames("entity", "operation")
+            .register();
+
+    public static final Histogram entityPreloadDuration = Histogram.build()
+            .name("fredboat_db_entity_preload_duration_seconds")
+            .help("Time it takes to preload the guild entities of a shard after it became ready")
+            .buckets(0.5, 1, 2.5, 5, 10, 30, 60, 120, 300)
+            .register();
+
+    public static final Counter entitiesPreloaded = Counter.build()
+            .name("fredboat_db_entities_preloaded_total")
+            .help("Total entities preloaded for guilds of shards that became ready")
+            .labelNames("entity") // GuildConfig, GuildPermissions
+            .register();
+
+    public static final Gauge writeBehindQueueDepth = Gauge.build()
+            .name("fredboat_db_write_behind_queue_depth_current")
+            .help("Entities waiting in the write behind queue to be written to the database")
+            .register();
+
+    public static final Histogram writeBehindFlushDuration = Histogram.build()
+            .name("fredboat_db_write_behind_flush_duration_seconds")
+            .help("Time it takes to write a batch of the write behind queue to the database")
+            .register();
+
+    public static final Counter writeBehindWritten = Counter.build()
+            .name("fredboat_db_write_behind_written_total")
+            .help("Total entities written to the database by the write behind queue")
+            .register();
+
+    public static final Counter writeBehindFailedFlushes = Counter.build()
+            .name("fredboat_db_write_behind_failed_flushes_total")
+            .help("Total batches of the write behind queue that failed to be written and will be retried")
+            .register();
+
+    public static final Counter writeBehindDropped = Counter.build()
+            .name("fredboat_db_write_behind_dropped_total")
+            .help("Total entities dropped because the write behind queue was full or they failed to be written too often")
+            .register();
+
+    public static final Gauge searchResultsRows = Gauge.build()
+            .name("fredboat_db_search_results_rows_current")
+            .help("Cached search results stored in the database, estimated on postgres")
+            .register();
+
+    public static final Gauge searchResultsTableBytes = Gauge.build()
+            .name("fredboat_db_search_results_table_bytes_current")
+            .help("Size of the search results table including its indices, only available on postgres")
+            .register();
+
+    public static final Counter searchResultsDeleted = Counter.build()
+            .name("fredboat_db_search_results_deleted_total")
+            .help("Total cached search results deleted from the database")
+            .labelNames("reason") // expired, evicted
+            .register();
+
 }
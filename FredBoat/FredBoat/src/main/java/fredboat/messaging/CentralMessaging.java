@@ -25,9 +25,11 @@
 
 package fredboat.messaging;
 
+import fredboat.Config;
 import fredboat.feature.I18n;
 import fredboat.feature.metrics.Metrics;
 import fredboat.shared.constant.BotConstants;
+import fredboat.util.rest.CacheUtil;
 import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.MessageBuilder;
 import net.dv8tion.jda.core.Permission;
@@ -39,7 +41,6 @@ import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.exceptions.ErrorResponseException;
 import net.dv8tion.jda.core.exceptions.InsufficientPermissionException;
 import net.dv8tion.jda.core.requests.ErrorResponse;
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +51,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
@@ -74,6 +76,16 @@ public class CentralMessaging {
     public static final ScheduledExecutorService restService = Executors.newScheduledThreadPool(10,
             runnable -> new Thread(runnable, "central-messaging-scheduler"));
 
+    //merges plain text messages that are sent to the same channel in quick succession, null if turned off
+    @Nullable
+    private static final MessageCoalescer coalescer = Config.CONFIG.getMessageCoalesceMillis() > 0
+            ? new MessageCoalescer(Config.CONFIG.getMessageCoalesceMillis()) : null;
+
+    //JDA answers even ratelimited messages well within this, unless a callback got lost
+    private static final long IN_FLIGHT_TIMEOUT_MILLIS = 60000;
+
+    private static final OutboundQueue outboundQueue = new OutboundQueue(restService, IN_FLIGHT_TIMEOUT_MILLIS);
+
 
     // ********************************************************************************
     //       Thread local handling and providing of Messages and Embeds builders
@@ -139,7 +151,9 @@ public class CentralMessaging {
                 channel,
                 message,
                 onSuccess,
-                onFail
+                onFail,
+                MessagePriority.REPLY,
+                null
         );
     }
 
@@ -150,6 +164,8 @@ public class CentralMessaging {
                 channel,
                 message,
                 onSuccess,
+                null,
+                MessagePriority.REPLY,
                 null
         );
     }
@@ -160,6 +176,8 @@ public class CentralMessaging {
                 channel,
                 message,
                 null,
+                null,
+                MessagePriority.REPLY,
                 null
         );
     }
@@ -171,7 +189,9 @@ public class CentralMessaging {
                 channel,
                 from(embed),
                 onSuccess,
-                onFail
+                onFail,
+                MessagePriority.REPLY,
+                null
         );
     }
 
@@ -182,6 +202,8 @@ public class CentralMessaging {
                 channel,
                 from(embed),
                 onSuccess,
+                null,
+                MessagePriority.REPLY,
                 null
         );
     }
@@ -192,6 +214,8 @@ public class CentralMessaging {
                 channel,
                 from(embed),
                 null,
+                null,
+                MessagePriority.REPLY,
                 null
         );
     }
@@ -203,7 +227,9 @@ public class CentralMessaging {
                 channel,
                 from(content),
                 onSuccess,
-                onFail
+                onFail,
+                MessagePriority.REPLY,
+                null
         );
     }
 
@@ -214,20 +240,74 @@ public class CentralMessaging {
                 channel,
                 from(content),
                 onSuccess,
+                null,
+                MessagePriority.REPLY,
                 null
         );
     }
 
+    /**
+     * Queues a message with a priority other than {@link MessagePriority#REPLY}, which is what all other sendMessage
+     * methods use.
+     *
+     * @param supersedeKey if not null, messages with the same key that are still queued for this channel are dropped,
+     *                     their futures complete exceptionally with a {@link CancellationException}
+     */
+    public static MessageFuture sendMessage(@Nonnull MessageChannel channel, @Nonnull Message message,
+                                            @Nonnull MessagePriority priority, @Nullable String supersedeKey,
+                                            @Nullable Consumer<Message> onSuccess, @Nullable Consumer<Throwable> onFail) {
+        return sendMessage0(
+                channel,
+                message,
+                onSuccess,
+                onFail,
+                priority,
+                supersedeKey
+        );
+    }
+
+    // String
+    public static MessageFuture sendMessage(@Nonnull MessageChannel channel, @Nonnull String content,
+                                            @Nonnull MessagePriority priority, @Nullable String supersedeKey) {
+        return sendMessage0(
+                channel,
+                from(content),
+                null,
+                null,
+                priority,
+                supersedeKey
+        );
+    }
+
     // String
     public static MessageFuture sendMessage(@Nonnull MessageChannel channel, @Nonnull String content) {
         return sendMessage0(
                 channel,
                 from(content),
                 null,
+                null,
+                MessagePriority.REPLY,
                 null
         );
     }
 
+    /**
+     * Sends a plain text message that nothing waits on. Unlike the other sendMessage methods, no future or callback is
+     * handed out, so the message may be merged with other such messages to the same channel if message coalescing is
+     * enabled.
+     */
+    public static void sendMessageCoalesced(@Nonnull MessageChannel channel, @Nonnull String content) {
+        sendMessage0(
+                channel,
+                from(content),
+                null,
+                null,
+                MessagePriority.REPLY,
+                null,
+                true
+        );
+    }
+
     // ********************************************************************************
     //                            File sending methods
     // ********************************************************************************
@@ -458,7 +538,17 @@ public class CentralMessaging {
 
     //class internal message sending method
     private static MessageFuture sendMessage0(@Nonnull MessageChannel channel, @Nonnull Message message,
-                                              @Nullable Consumer<Message> onSuccess, @Nullable Consumer<Throwable> onFail) {
+                                              @Nullable Consumer<Message> onSuccess, @Nullable Consumer<Throwable> onFail,
+                                              @Nonnull MessagePriority priority, @Nullable String supersedeKey) {
+        return sendMessage0(channel, message, onSuccess, onFail, priority, supersedeKey, false);
+    }
+
+    //coalesce may only be set for messages whose future and callbacks nobody gets to see, as they would be completed
+    //with the merged message
+    private static MessageFuture sendMessage0(@Nonnull MessageChannel channel, @Nonnull Message message,
+                                              @Nullable Consumer<Message> onSuccess, @Nullable Consumer<Throwable> onFail,
+                                              @Nonnull MessagePriority priority, @Nullable String supersedeKey,
+                                              boolean coalesce) {
         if (channel == null) {
             throw new IllegalArgumentException("Channel is null");
         }
@@ -486,6 +576,43 @@ public class CentralMessaging {
             }
         };
 
+        //superseded messages are expected, so they are not logged like failures
+        Runnable droppedWrapper = () -> {
+            CancellationException superseded = new CancellationException("Superseded by a newer message");
+            result.completeExceptionally(superseded);
+            if (onFail != null) {
+                onFail.accept(superseded);
+            }
+        };
+
+        //messages that may be superseded are kept apart, so that dropping them does not drop other content with them
+        if (coalesce && coalescer != null && supersedeKey == null && MessageCoalescer.isCoalescable(message)) {
+            coalescer.add(channel, message, priority, successWrapper, failureWrapper);
+        } else {
+            flushCoalesced(channel);
+            enqueue(channel, message, priority, supersedeKey, successWrapper, failureWrapper, droppedWrapper);
+        }
+        return result;
+    }
+
+    //sends the text that is still being collected for the channel, so that the next message does not overtake it
+    private static void flushCoalesced(@Nonnull MessageChannel channel) {
+        if (coalescer != null) {
+            coalescer.flush(channel.getIdLong());
+        }
+    }
+
+    //puts the message into the send queue of its channel, also used by the coalescer once a batch of messages is due
+    static void enqueue(@Nonnull MessageChannel channel, @Nonnull Message message, @Nonnull MessagePriority priority,
+                        @Nullable String supersedeKey, @Nonnull Consumer<Message> successWrapper,
+                        @Nonnull Consumer<Throwable> failureWrapper, @Nonnull Runnable droppedWrapper) {
+        outboundQueue.submit(channel, (onSuccess, onFail) -> queueMessage(channel, message, onSuccess, onFail),
+                priority, supersedeKey, successWrapper, failureWrapper, droppedWrapper);
+    }
+
+    //hands the message over to JDA, used by the send queues once it is the message's turn
+    static void queueMessage(@Nonnull MessageChannel channel, @Nonnull Message message,
+                             @Nonnull Consumer<Message> successWrapper, @Nonnull Consumer<Throwable> failureWrapper) {
         try {
             channel.sendMessage(message).queue(successWrapper, failureWrapper);
         } catch (InsufficientPermissionException e) {
@@ -497,7 +624,6 @@ public class CentralMessaging {
                 log.warn("Could not send message to channel {} due to missing permission {}", channel.getIdLong(), e.getPermission().getName(), e);
             }
         }
-        return result;
     }
 
     //class internal file sending method
@@ -530,21 +656,39 @@ public class CentralMessaging {
             }
         };
 
+        byte[] data;
+        try {
+            data = CacheUtil.readFileToByteArray(file);
+        } catch (IOException e) {
+            log.error("Could not send file {}, it appears to be borked", file.getAbsolutePath(), e);
+            return result;
+        }
+
+        //files post messages just like text does, so they wait for their turn in the send queue of the channel
+        flushCoalesced(channel);
+        outboundQueue.submit(channel, (s, f) -> queueFile(channel, data, file.getName(), message, s, f),
+                MessagePriority.REPLY, null, successWrapper, failureWrapper, () -> {
+                    //without a supersede key it never gets dropped
+                });
+        return result;
+    }
+
+    //hands the file over to JDA, used by the send queues once it is the file's turn
+    private static void queueFile(@Nonnull MessageChannel channel, @Nonnull byte[] data, @Nonnull String fileName,
+                                  @Nullable Message message, @Nonnull Consumer<Message> successWrapper,
+                                  @Nonnull Consumer<Throwable> failureWrapper) {
         try {
             // ATTENTION: Do not use JDA's MessageChannel#sendFile(File file, Message message)
             // as it will skip permission checks, since TextChannel does not override that method
             // this is scheduled to be fixed through JDA's message-rw branch
-            channel.sendFile(FileUtils.readFileToByteArray(file), file.getName(), message).queue(successWrapper, failureWrapper);
+            channel.sendFile(data, fileName, message).queue(successWrapper, failureWrapper);
         } catch (InsufficientPermissionException e) {
             failureWrapper.accept(e);
             handleInsufficientPermissionsException(channel, e);
-        } catch (IOException e) {
-            log.error("Could not send file {}, it appears to be borked", file.getAbsolutePath(), e);
         }
-        return result;
     }
 
-    //class internal editing method
+    //class internal editing method. edits skip the send queues, see OutboundQueue
     private static MessageFuture editMessage0(@Nonnull MessageChannel channel, long oldMessageId, @Nonnull Message newMessage,
                                               @Nullable Consumer<Message> onSuccess, @Nullable Consumer<Throwable> onFail) {
         if (channel == null) {
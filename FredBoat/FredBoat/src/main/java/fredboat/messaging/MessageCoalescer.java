@@ -0,0 +1,181 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.messaging;
+
+import fredboat.feature.metrics.Metrics;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.MessageChannel;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Buffers plain text messages per channel for a short window and sends them as a single message, so that bursts of
+ * short replies don't use up a channel's ratelimit one REST call at a time.
+ * <p>
+ * Only fed with messages that nobody waits on (see {@link CentralMessaging#sendMessageCoalesced}), as their
+ * callbacks are completed with the merged message. Anything else sent to the channel flushes its batch first.
+ */
+class MessageCoalescer {
+
+    //discord's limit on the content of a single message
+    private static final int MAX_LENGTH = 2000;
+    private static final String SEPARATOR = "\n";
+
+    private final long windowMillis;
+
+    //channel id -> batch that is currently collecting messages. guarded by itself
+    private final Map<Long, Batch> batches = new HashMap<>();
+
+    MessageCoalescer(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return true if the message carries nothing but text, so it can be merged with other messages
+     */
+    static boolean isCoalescable(@Nonnull Message message) {
+        String content = message.getRawContent();
+        return message.getEmbeds().isEmpty()
+                && !message.isTTS()
+                && content != null && !content.isEmpty()
+                && content.length() <= MAX_LENGTH;
+    }
+
+    void add(@Nonnull MessageChannel channel, @Nonnull Message message, @Nonnull MessagePriority priority,
+             @Nonnull Consumer<Message> onSuccess, @Nonnull Consumer<Throwable> onFail) {
+        long channelId = channel.getIdLong();
+        Batch full = null;
+        Batch created = null;
+        synchronized (batches) {
+            Batch batch = batches.get(channelId);
+            if (batch != null && !batch.fits(message.getRawContent())) {
+                batches.remove(channelId);
+                full = batch;
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(channel);
+                batches.put(channelId, batch);
+                created = batch;
+            }
+            batch.add(message, priority, onSuccess, onFail);
+        }
+
+        if (full != null) {
+            full.send();
+        }
+        if (created != null) {
+            Batch toFlush = created;
+            CentralMessaging.restService.schedule(() -> flush(toFlush), windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends the batch that is collecting messages for the channel right away, if there is one.
+     */
+    void flush(long channelId) {
+        Batch batch;
+        synchronized (batches) {
+            batch = batches.remove(channelId);
+        }
+        if (batch != null) {
+            batch.send();
+        }
+    }
+
+    private void flush(Batch batch) {
+        boolean removed;
+        synchronized (batches) {
+            //may have been sent already because it filled up before the window ran out
+            removed = batches.remove(batch.channel.getIdLong(), batch);
+        }
+        if (removed) {
+            batch.send();
+        }
+    }
+
+    private static class Batch {
+        private final MessageChannel channel;
+        private final List<Message> messages = new ArrayList<>();
+        private final List<Consumer<Message>> successHandlers = new ArrayList<>();
+        private final List<Consumer<Throwable>> failureHandlers = new ArrayList<>();
+        private int length = 0;
+        //the merged message is sent with the highest priority of its parts
+        private MessagePriority priority = MessagePriority.ANNOUNCEMENT;
+
+        private Batch(MessageChannel channel) {
+            this.channel = channel;
+        }
+
+        private boolean fits(String content) {
+            return length + SEPARATOR.length() + content.length() <= MAX_LENGTH;
+        }
+
+        private void add(Message message, MessagePriority priority, Consumer<Message> onSuccess,
+                         Consumer<Throwable> onFail) {
+            if (!messages.isEmpty()) {
+                length += SEPARATOR.length();
+            }
+            if (priority.compareTo(this.priority) < 0) {
+                this.priority = priority;
+            }
+            length += message.getRawContent().length();
+            messages.add(message);
+            successHandlers.add(onSuccess);
+            failureHandlers.add(onFail);
+        }
+
+        //only called once the batch is no longer reachable through the map, so no further messages get added
+        private void send() {
+            Message merged;
+            if (messages.size() == 1) {
+                merged = messages.get(0);
+            } else {
+                StringBuilder sb = new StringBuilder(length);
+                for (Message message : messages) {
+                    if (sb.length() > 0) {
+                        sb.append(SEPARATOR);
+                    }
+                    sb.append(message.getRawContent());
+                }
+                merged = CentralMessaging.from(sb.toString());
+                Metrics.coalescedMessages.inc(messages.size() - 1);
+            }
+
+            CentralMessaging.enqueue(channel, merged, priority, null,
+                    m -> successHandlers.forEach(handler -> handler.accept(m)),
+                    t -> failureHandlers.forEach(handler -> handler.accept(t)),
+                    () -> {
+                    });
+        }
+    }
+}
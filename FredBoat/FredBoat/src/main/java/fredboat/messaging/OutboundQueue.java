@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.messaging;
+
+import fredboat.feature.metrics.Metrics;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.MessageChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Per channel queues of messages waiting to be sent.
+ * <p>
+ * Only one message per channel is handed to JDA at a time, the rest wait here. That way a backlog building up in a
+ * ratelimited channel stays under our control: replies to commands overtake queued announcements, and queued messages
+ * can be dropped when a newer message makes them pointless, like an outdated "Now playing" announcement.
+ * <p>
+ * A message in flight that JDA doesn't answer in time is failed, so a lost callback can't stall its channel forever.
+ * <p>
+ * Edits don't go through here: they don't post a new message, so they neither compete with the messages of a channel
+ * for its order nor for its ratelimit of posting messages.
+ */
+class OutboundQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundQueue.class);
+
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparing((Entry entry) -> entry.priority)
+            .thenComparingLong(entry -> entry.sequence);
+
+    //channel id -> queue of that channel. only channels with a message in flight have a queue. guarded by itself
+    private final Map<Long, ChannelQueue> queues = new HashMap<>();
+    private long sequence = 0;
+
+    private final ScheduledExecutorService scheduler;
+    private final long inFlightTimeoutMillis;
+
+    /**
+     * @param scheduler             runs the timeouts of messages in flight
+     * @param inFlightTimeoutMillis after this long without an answer a message in flight is failed with a
+     *                              {@link TimeoutException}, and the next message of its channel is sent
+     */
+    OutboundQueue(@Nonnull ScheduledExecutorService scheduler, long inFlightTimeoutMillis) {
+        this.scheduler = scheduler;
+        this.inFlightTimeoutMillis = inFlightTimeoutMillis;
+    }
+
+    /**
+     * @param delivery     hands the message over to JDA once it is its turn, see {@link CentralMessaging#queueMessage}
+     * @param supersedeKey if not null, queued messages of the same channel with the same key are dropped in favour of
+     *                     this message
+     * @param onDropped    called when this message gets dropped before being sent
+     */
+    void submit(@Nonnull MessageChannel channel, @Nonnull Delivery delivery, @Nonnull MessagePriority priority,
+                @Nullable String supersedeKey, @Nonnull Consumer<Message> onSuccess,
+                @Nonnull Consumer<Throwable> onFail, @Nonnull Runnable onDropped) {
+        List<Entry> dropped = new ArrayList<>();
+        Entry toSend = null;
+        synchronized (queues) {
+            Entry entry = new Entry(channel, delivery, priority, supersedeKey, onSuccess, onFail, onDropped, sequence++);
+            ChannelQueue queue = queues.get(channel.getIdLong());
+            if (queue == null) {
+                //nothing in flight for this channel, send right away
+                queues.put(channel.getIdLong(), new ChannelQueue());
+                toSend = entry;
+            } else {
+                if (supersedeKey != null) {
+                    Iterator<Entry> it = queue.pending.iterator();
+                    while (it.hasNext()) {
+                        Entry queued = it.next();
+                        if (supersedeKey.equals(queued.supersedeKey)) {
+                            it.remove();
+                            dropped.add(queued);
+                        }
+                    }
+                }
+                queue.pending.add(entry);
+                Metrics.outboundMessagesQueued.labels(priority.label()).inc();
+            }
+        }
+
+        for (Entry entry : dropped) {
+            Metrics.outboundMessagesQueued.labels(entry.priority.label()).dec();
+            Metrics.outboundMessagesDropped.labels(entry.priority.label()).inc();
+            entry.onDropped.run();
+        }
+        if (toSend != null) {
+            send(toSend);
+        }
+    }
+
+    private void send(Entry entry) {
+        //the next message of the channel must be sent exactly once, no matter how this one gets answered
+        AtomicBoolean answered = new AtomicBoolean(false);
+        AtomicReference<ScheduledFuture<?>> timeout = new AtomicReference<>();
+        Consumer<Throwable> onFail = t -> {
+            if (answered.compareAndSet(false, true)) {
+                cancel(timeout.get());
+                observeLatency(entry, t instanceof TimeoutException ? "timeout" : "failure");
+                sendNext(entry.channel.getIdLong());
+                entry.onFail.accept(t);
+            }
+        };
+        //the answer may still arrive after this, but the channel doesn't wait for it any longer
+        timeout.set(scheduler.schedule(() -> {
+            if (!answered.get()) {
+                log.warn("No answer for a message to channel {} after {}ms, sending the next one", entry.channel.getIdLong(), inFlightTimeoutMillis);
+            }
+            onFail.accept(new TimeoutException("No answer for the message after " + inFlightTimeoutMillis + "ms"));
+        }, inFlightTimeoutMillis, TimeUnit.MILLISECONDS));
+        try {
+            entry.delivery.deliver(
+                    m -> {
+                        if (answered.compareAndSet(false, true)) {
+                            cancel(timeout.get());
+                            observeLatency(entry, "success");
+                            sendNext(entry.channel.getIdLong());
+                            entry.onSuccess.accept(m);
+                        }
+                    },
+                    onFail);
+        } catch (RuntimeException e) {
+            //JDA refused the message before queueing it, like a VerificationLevelException or a RejectedExecutionException
+            // of its requester. without an answer the channel would never send anything again
+            onFail.accept(e);
+        }
+    }
+
+    //called once the message in flight for the channel has been answered
+    private void sendNext(long channelId) {
+        Entry next;
+        synchronized (queues) {
+            ChannelQueue queue = queues.get(channelId);
+            next = queue == null ? null : queue.pending.poll();
+            if (next == null) {
+                queues.remove(channelId);
+                return;
+            }
+        }
+        Metrics.outboundMessagesQueued.labels(next.priority.label()).dec();
+        send(next);
+    }
+
+    //null only if the timeout fired before it could be stored, cancelling it is pointless then anyways
+    private static void cancel(@Nullable ScheduledFuture<?> timeout) {
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+    }
+
+    private static void observeLatency(Entry entry, String outcome) {
+        Metrics.outboundMessageLatency.labels(entry.priority.label(), outcome)
+                .observe((System.nanoTime() - entry.queuedAt) / 1_000_000_000.0);
+    }
+
+    @FunctionalInterface
+    interface Delivery {
+        void deliver(@Nonnull Consumer<Message> onSuccess, @Nonnull Consumer<Throwable> onFail);
+    }
+
+    private static class ChannelQueue {
+        private final PriorityQueue<Entry> pending = new PriorityQueue<>(ORDER);
+    }
+
+    private static class Entry {
+        private final MessageChannel channel;
+        private final Delivery delivery;
+        private final MessagePriority priority;
+        @Nullable
+        private final String supersedeKey;
+        private final Consumer<Message> onSuccess;
+        private final Consumer<Throwable> onFail;
+        private final Runnable onDropped;
+        private final long sequence;
+        private final long queuedAt = System.nanoTime();
+
+        private Entry(MessageChannel channel, Delivery delivery, MessagePriority priority, @Nullable String supersedeKey,
+                      Consumer<Message> onSuccess, Consumer<Throwable> onFail, Runnable onDropped, long sequence) {
+            this.channel = channel;
+            this.delivery = delivery;
+            this.priority = priority;
+            this.supersedeKey = supersedeKey;
+            this.onSuccess = onSuccess;
+            this.onFail = onFail;
+            this.onDropped = onDropped;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -45,7 +45,6 @@ import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
-import java.text.MessageFormat;
 import java.util.ResourceBundle;
 import java.util.function.Consumer;
 
@@ -77,6 +76,13 @@ public abstract class Context {
         return CentralMessaging.sendMessage(getTextChannel(), message);
     }
 
+    /**
+     * Reply with a message that nothing waits on, so it may be merged with other such replies to the channel.
+     */
+    public void replyCoalesced(String message) {
+        CentralMessaging.sendMessageCoalesced(getTextChannel(), message);
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public MessageFuture reply(String message, Consumer<Message> onSuccess) {
         return CentralMessaging.sendMessage(getTextChannel(), message, onSuccess);
@@ -192,7 +198,7 @@ public abstract class Context {
             log.warn("Context#i18nFormat() called with empty or null params, this is likely a bug.",
                     new MessagingException("a stack trace to help find the source"));
         }
-        return MessageFormat.format(this.i18n(key), params);
+        return I18n.format(this.i18n(key), params);
     }
 
     // ********************************************************************************
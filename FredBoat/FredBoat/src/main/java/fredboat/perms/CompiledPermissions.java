@@ -0,0 +1,134 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.perms;
+
+import fredboat.db.entity.GuildPermissions;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * The permission lists of a guild, parsed once from its {@link GuildPermissions} into sets of user and role ids, so that
+ * checking a member against them doesn't need any string splitting or parsing.
+ * <p>
+ * Also holds the resolved permission levels of members of the guild. These need to be invalidated whenever the roles
+ * of a member or the permissions of a role change, see {@link PermsUtil}.
+ */
+public class CompiledPermissions {
+
+    private final long guildId;
+    private final LongOpenHashSet adminIds;
+    private final LongOpenHashSet djIds;
+    private final LongOpenHashSet userIds;
+
+    //user id -> resolved permission level of that member. guarded by this
+    private final Long2ObjectOpenHashMap<PermissionLevel> resolved = new Long2ObjectOpenHashMap<>();
+    //bumped by every invalidation of resolved levels. guarded by this
+    private long memberGeneration = 0;
+
+    CompiledPermissions(long guildId, GuildPermissions gp) {
+        this.guildId = guildId;
+        this.adminIds = compile(gp.getAdminList());
+        this.djIds = compile(gp.getDjList());
+        this.userIds = compile(gp.getUserList());
+    }
+
+    /**
+     * @return the highest of the ADMIN, DJ and USER levels the member has been granted, BASE if none of them
+     */
+    PermissionLevel getListedLevel(Member member) {
+        if (matches(adminIds, member)) return PermissionLevel.ADMIN;
+        if (matches(djIds, member)) return PermissionLevel.DJ;
+        if (matches(userIds, member)) return PermissionLevel.USER;
+
+        return PermissionLevel.BASE;
+    }
+
+    @Nullable
+    synchronized PermissionLevel getResolved(long userId) {
+        return resolved.get(userId);
+    }
+
+    /**
+     * @return a token to be taken before looking at the roles of a member, and to be passed to
+     * {@link #putResolved(long, PermissionLevel, long)} afterwards
+     */
+    synchronized long memberGeneration() {
+        return memberGeneration;
+    }
+
+    /**
+     * Stores the resolved level, unless any member has been invalidated since the generation was taken
+     */
+    synchronized void putResolved(long userId, PermissionLevel level, long generation) {
+        if (memberGeneration == generation) {
+            resolved.put(userId, level);
+        }
+    }
+
+    synchronized void invalidateMember(long userId) {
+        memberGeneration++;
+        resolved.remove(userId);
+    }
+
+    synchronized void invalidateMembers() {
+        memberGeneration++;
+        resolved.clear();
+    }
+
+    private boolean matches(LongOpenHashSet ids, Member member) {
+        if (ids.isEmpty()) return false;
+
+        //the public role (@everyone) of a guild shares the snowflake of the guild
+        if (ids.contains(guildId)) return true;
+        if (ids.contains(member.getUser().getIdLong())) return true;
+
+        for (Role role : member.getRoles()) {
+            if (ids.contains(role.getIdLong())) return true;
+        }
+
+        return false;
+    }
+
+    private static LongOpenHashSet compile(List<String> list) {
+        LongOpenHashSet ids = new LongOpenHashSet(list.size());
+        for (String id : list) {
+            if (id.isEmpty()) continue;
+
+            try {
+                ids.add(Long.parseLong(id));
+            } catch (NumberFormatException ignored) {
+                //not a snowflake, can't ever match anything
+            }
+        }
+        ids.trim();
+        return ids;
+    }
+}
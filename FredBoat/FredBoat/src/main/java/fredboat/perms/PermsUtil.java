@@ -25,22 +25,83 @@
 
 package fredboat.perms;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import fredboat.Config;
 import fredboat.commandmeta.abs.CommandContext;
-import fredboat.db.EntityReader;
+import fredboat.db.EntityRepository;
 import fredboat.db.entity.GuildPermissions;
 import fredboat.feature.togglz.FeatureFlags;
 import fredboat.util.DiscordUtil;
 import net.dv8tion.jda.core.Permission;
+import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Role;
 import net.dv8tion.jda.core.utils.PermissionUtil;
 
+import javax.annotation.Nullable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class PermsUtil {
 
+    //guild id -> compiled permission lists of that guild, including the resolved levels of its members
+    public static final Cache<Long, CompiledPermissions> COMPILED_PERMISSIONS = CacheBuilder.newBuilder()
+            .recordStats()
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .expireAfterWrite(6, TimeUnit.HOURS) //safety net for changes we don't get events for
+            .build();
+
+    //bumped by every invalidation of a guild, striped by guild id. lists compiled from a database read that started
+    //before an invalidation must not be cached, or the invalidation would get lost
+    private static final int GENERATION_STRIPES = 256;
+    private static final AtomicLongArray GENERATIONS = new AtomicLongArray(GENERATION_STRIPES);
+
+    //guild id -> compilation of that guild's permission lists that is currently running
+    private static final Map<Long, CompletableFuture<CompiledPermissions>> COMPILING = new ConcurrentHashMap<>();
+
     public static PermissionLevel getPerms(Member member) {
+        if (!FeatureFlags.PERMISSIONS.isActive()) {
+            PermissionLevel elevated = getElevatedPerms(member);
+            if (elevated != null) return elevated;
+
+            return PermissionUtil.checkPermission(member, Permission.MESSAGE_MANAGE) ? PermissionLevel.DJ : PermissionLevel.USER;
+        }
+
+        long userId = member.getUser().getIdLong();
+        CompiledPermissions compiled = COMPILED_PERMISSIONS.getIfPresent(member.getGuild().getIdLong());
+        if (compiled != null) {
+            PermissionLevel resolved = compiled.getResolved(userId);
+            if (resolved != null) return resolved;
+        } else {
+            //these don't need the database, so resolve them before possibly running into a DatabaseNotReadyException
+            PermissionLevel elevated = getElevatedPerms(member);
+            if (elevated != null) return elevated;
+            compiled = compile(member.getGuild());
+        }
+
+        //taken before looking at the roles of the member, so that a role change we race with can't leave its old
+        //level cached: either we see the bumped generation, or the invalidation removes what we put
+        long generation = compiled.memberGeneration();
+        PermissionLevel level = getElevatedPerms(member);
+        if (level == null) {
+            level = compiled.getListedLevel(member);
+        }
+
+        compiled.putResolved(userId, level, generation);
+        return level;
+    }
+
+    /**
+     * @return the permission level of the member if it is granted independently of the guild's permission lists, null
+     * otherwise
+     */
+    @Nullable
+    private static PermissionLevel getElevatedPerms(Member member) {
         if (DiscordUtil.getOwnerId(member.getJDA()) == member.getUser().getIdLong()) {
             return PermissionLevel.BOT_OWNER; // https://fred.moe/Q-EB.png
         } else if (isBotAdmin(member)) {
@@ -48,18 +109,103 @@ public class PermsUtil {
         } else if (PermissionUtil.checkPermission(member, Permission.ADMINISTRATOR)) {
             return PermissionLevel.ADMIN;
         }
+        return null;
+    }
 
-        if (!FeatureFlags.PERMISSIONS.isActive()) {
-            return PermissionUtil.checkPermission(member, Permission.MESSAGE_MANAGE) ? PermissionLevel.DJ : PermissionLevel.USER;
+    private static CompiledPermissions compile(Guild guild) {
+        return EntityRepository.await(compileAsync(guild));
+    }
+
+    /**
+     * Start compiling the permission lists of the guild in the background if they aren't compiled yet, so they are
+     * ready by the time a command of that guild checks them. Never blocks.
+     */
+    public static void prefetch(Guild guild) {
+        if (FeatureFlags.PERMISSIONS.isActive() && COMPILED_PERMISSIONS.getIfPresent(guild.getIdLong()) == null) {
+            compileAsync(guild);
+        }
+    }
+
+    /**
+     * @return the compilation of the guild's permission lists that is running already, or a new one
+     */
+    private static CompletableFuture<CompiledPermissions> compileAsync(Guild guild) {
+        long guildId = guild.getIdLong();
+        CompletableFuture<CompiledPermissions> created = new CompletableFuture<>();
+        CompletableFuture<CompiledPermissions> running = COMPILING.putIfAbsent(guildId, created);
+        if (running != null) {
+            return running;
         }
 
-        GuildPermissions gp = EntityReader.getGuildPermissions(member.getGuild());
+        long generation = generation(guildId);
+        EntityRepository.getGuildPermissions(guild).whenComplete((gp, t) -> {
+            COMPILING.remove(guildId, created);
+            if (t != null) {
+                created.completeExceptionally(t);
+                return;
+            }
+            CompiledPermissions compiled = new CompiledPermissions(guildId, gp);
+            cacheIfCurrent(guildId, generation, compiled, true);
+            created.complete(compiled);
+        });
+        return created;
+    }
+
+    /**
+     * Compile the permission lists of a guild ahead of time, unless they are compiled already
+     *
+     * @param generation result of {@link #generation(long)} taken before the permissions were read from the database
+     */
+    public static void precompile(long guildId, long generation, GuildPermissions gp) {
+        cacheIfCurrent(guildId, generation, new CompiledPermissions(guildId, gp), false);
+    }
+
+    /**
+     * @return a token to be taken before reading the permissions of a guild from the database, and to be passed to
+     * {@link #precompile(long, long, GuildPermissions)} afterwards
+     */
+    public static long generation(long guildId) {
+        return GENERATIONS.get(stripe(guildId));
+    }
+
+    private static void cacheIfCurrent(long guildId, long generation, CompiledPermissions compiled, boolean replace) {
+        //the generation check happens under the lock of the cache entry, and invalidations bump the generation before
+        //removing the entry, so either we see the bump here or the invalidation removes what we put
+        COMPILED_PERMISSIONS.asMap().compute(guildId, (id, existing) -> {
+            if (generation(guildId) != generation) return existing;
+            if (existing != null && !replace) return existing;
+            return compiled;
+        });
+    }
+
+    private static int stripe(long guildId) {
+        return (int) ((guildId ^ (guildId >>> 32)) & (GENERATION_STRIPES - 1));
+    }
 
-        if (checkList(gp.getAdminList(), member)) return PermissionLevel.ADMIN;
-        if (checkList(gp.getDjList(), member)) return PermissionLevel.DJ;
-        if (checkList(gp.getUserList(), member)) return PermissionLevel.USER;
+    /**
+     * Call this after the permission lists of a guild have been changed
+     */
+    public static void invalidateGuild(long guildId) {
+        GENERATIONS.incrementAndGet(stripe(guildId));
+        //the running compilation may have read the old lists, callers after this shall get a fresh one
+        COMPILING.remove(guildId);
+        COMPILED_PERMISSIONS.invalidate(guildId);
+    }
 
-        return PermissionLevel.BASE;
+    /**
+     * Call this after the roles of a member have changed or the member left the guild
+     */
+    public static void invalidateMember(long guildId, long userId) {
+        CompiledPermissions compiled = COMPILED_PERMISSIONS.getIfPresent(guildId);
+        if (compiled != null) compiled.invalidateMember(userId);
+    }
+
+    /**
+     * Call this after a role of the guild has been changed or deleted, which may affect the levels of any member
+     */
+    public static void invalidateMembers(long guildId) {
+        CompiledPermissions compiled = COMPILED_PERMISSIONS.getIfPresent(guildId);
+        if (compiled != null) compiled.invalidateMembers();
     }
 
     /**
@@ -28,6 +28,7 @@ package fredboat.util;
 import fredboat.Config;
 import fredboat.commandmeta.MessagingException;
 import fredboat.messaging.CentralMessaging;
+import fredboat.messaging.MessagePriority;
 import fredboat.messaging.internal.Context;
 import fredboat.util.rest.Http;
 import net.dv8tion.jda.core.MessageBuilder;
@@ -110,7 +111,8 @@ public class TextUtils {
         builder.append("\t...```"); //opening ``` is part of the utilErrorOccurred language string
 
         try {
-            context.reply(builder.build());
+            CentralMessaging.sendMessage(context.getTextChannel(), builder.build(), MessagePriority.ERROR, null,
+                    null, null);
         } catch (UnsupportedOperationException | IllegalStateException tooLongEx) {
             try {
                 context.reply(context.i18nFormat("errorOccurredTooLong",
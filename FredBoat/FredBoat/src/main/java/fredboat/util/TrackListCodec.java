@@ -0,0 +1,415 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact, versioned binary format for a list of lavaplayer encoded tracks.
+ * <p>
+ * Layout: a magic byte, the format version, a flags byte, followed by the (optionally deflated) body:
+ * name, search result flag, selected track, track count and the tracks, each track length-prefixed.
+ * <p>
+ * The magic byte never starts a java serialization stream (0xACED), so data in this format can be told apart from
+ * legacy java serialized data.
+ * <p>
+ * Decoding is bounded in the amount of tracks, the size of each track and the inflated size of the body, since queue
+ * exports come from pastes anyone can write, and stored data may be corrupt.
+ */
+public class TrackListCodec {
+
+    public static final int VERSION = 1;
+
+    private static final byte MAGIC = (byte) 0xFB;
+    private static final int FLAG_COMPRESSED = 1;
+    //below this the deflate overhead isn't worth it
+    private static final int COMPRESSION_THRESHOLD = 256;
+
+    public static final String EXPORT_PREFIX = "fredboat-queue:";
+
+    //same as the queue limit of the AudioLoader, more can't be queued anyways
+    static final int MAX_TRACKS = 10000;
+    //encoded tracks are a few hundred bytes, some long titles and uris included
+    static final int MAX_TRACK_BYTES = 64 * 1024;
+    static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * @return true if the data is in this format, false if it is something else, like legacy java serialized data
+     */
+    public static boolean isEncoded(@Nullable byte[] data) {
+        return data != null && data.length >= 3 && data[0] == MAGIC;
+    }
+
+    public static byte[] encode(EncodedTrackList trackList) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeBoolean(trackList.name != null);
+            if (trackList.name != null) out.writeUTF(trackList.name);
+            out.writeBoolean(trackList.isSearchResult);
+            writeBlob(out, trackList.selectedTrack);
+            out.writeInt(trackList.tracks.length);
+            for (byte[] track : trackList.tracks) {
+                writeBlob(out, track);
+            }
+            out.flush();
+            return frame(body.toByteArray());
+        } catch (IOException e) {
+            //we are writing to memory, this does not happen
+            throw new IllegalStateException("Failed to encode track list", e);
+        }
+    }
+
+    public static EncodedTrackList decode(byte[] data) throws IOException {
+        try (DataInputStream in = unframe(data)) {
+            String name = in.readBoolean() ? in.readUTF() : null;
+            boolean isSearchResult = in.readBoolean();
+            byte[] selectedTrack = readBlob(in);
+            int count = readCount(in);
+            byte[][] tracks = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                tracks[i] = readBlob(in);
+            }
+            return new EncodedTrackList(name, tracks, selectedTrack, isSearchResult);
+        }
+    }
+
+    public static byte[] encodePlaylist(AudioPlayerManager playerManager, AudioPlaylist playlist) {
+        return encode(new EncodedTrackList(playlist.getName(),
+                encodeTracks(playerManager, playlist.getTracks()),
+                encodeTrack(playerManager, playlist.getSelectedTrack()),
+                playlist.isSearchResult()));
+    }
+
+    public static AudioPlaylist decodePlaylist(AudioPlayerManager playerManager, byte[] data) throws IOException {
+        EncodedTrackList trackList = decode(data);
+        return new BasicAudioPlaylist(trackList.name,
+                decodeTracks(playerManager, trackList.tracks),
+                decodeTrack(playerManager, trackList.selectedTrack),
+                trackList.isSearchResult);
+    }
+
+    /**
+     * Tracks that fail to encode are skipped.
+     */
+    public static byte[][] encodeTracks(AudioPlayerManager playerManager, @Nullable List<AudioTrack> tracks) {
+        if (tracks == null) {
+            return new byte[0][];
+        }
+
+        List<byte[]> encoded = new ArrayList<>(tracks.size());
+        for (AudioTrack track : tracks) {
+            byte[] encodedTrack = encodeTrack(playerManager, track);
+            if (encodedTrack != null) {
+                encoded.add(encodedTrack);
+            }
+        }
+        return encoded.toArray(new byte[encoded.size()][]);
+    }
+
+    //may return null if the encoding fails or the input is null
+    @Nullable
+    public static byte[] encodeTrack(AudioPlayerManager playerManager, @Nullable AudioTrack track) {
+        if (track == null) {
+            return null;
+        }
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            playerManager.encodeTrack(new MessageOutput(baos), track);
+            return baos.toByteArray();
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Tracks that fail to decode are skipped.
+     */
+    public static List<AudioTrack> decodeTracks(AudioPlayerManager playerManager, @Nullable byte[][] input) {
+        List<AudioTrack> result = new ArrayList<>();
+        if (input == null) return result;
+
+        for (byte[] track : input) {
+            AudioTrack decoded = decodeTrack(playerManager, track);
+            if (decoded != null) {
+                result.add(decoded);
+            }
+        }
+        return result;
+    }
+
+    //may return null if the decoding fails or the input is null
+    @Nullable
+    public static AudioTrack decodeTrack(AudioPlayerManager playerManager, @Nullable byte[] input) {
+        if (input == null) return null;
+        try {
+            return playerManager.decodeTrack(new MessageInput(new ByteArrayInputStream(input))).decodedTrack;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encode tracks for a queue export. Exports are uploaded to paste services, so they are text: a prefix followed by
+     * the base64 of the compact format, holding each track's uri next to its encoded form.
+     */
+    public static String encodeExport(AudioPlayerManager playerManager, List<AudioTrack> tracks) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(tracks.size());
+            for (AudioTrack track : tracks) {
+                String uri = track.getInfo().uri;
+                out.writeBoolean(uri != null);
+                if (uri != null) out.writeUTF(uri);
+                writeBlob(out, encodeTrack(playerManager, track));
+            }
+            out.flush();
+            return EXPORT_PREFIX + Base64.getEncoder().encodeToString(frame(body.toByteArray()));
+        } catch (IOException e) {
+            //we are writing to memory, this does not happen
+            throw new IllegalStateException("Failed to encode queue export", e);
+        }
+    }
+
+    /**
+     * @return true if the paste is a queue export created by {@link #encodeExport}
+     */
+    public static boolean isExport(@Nullable String paste) {
+        return paste != null && paste.trim().startsWith(EXPORT_PREFIX);
+    }
+
+    public static List<ExportEntry> decodeExport(String paste) throws IOException {
+        String trimmed = paste.trim();
+        if (!trimmed.startsWith(EXPORT_PREFIX)) {
+            throw new IOException("Not a queue export");
+        }
+        byte[] data;
+        try {
+            data = Base64.getMimeDecoder().decode(trimmed.substring(EXPORT_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Queue export is not valid base64", e);
+        }
+        try (DataInputStream in = unframe(data)) {
+            int count = readCount(in);
+            List<ExportEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String uri = in.readBoolean() ? in.readUTF() : null;
+                entries.add(new ExportEntry(uri, readBlob(in)));
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Encode search terms in order, each with the track it resolved to, if any. Same body as a queue export, with the
+     * search term in place of the uri.
+     */
+    public static byte[] encodeResolved(AudioPlayerManager playerManager, List<Tuple2<String, AudioTrack>> resolved) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(resolved.size());
+            for (Tuple2<String, AudioTrack> entry : resolved) {
+                out.writeUTF(entry.a);
+                writeBlob(out, encodeTrack(playerManager, entry.b));
+            }
+            out.flush();
+            return frame(body.toByteArray());
+        } catch (IOException e) {
+            //we are writing to memory, this does not happen
+            throw new IllegalStateException("Failed to encode resolved tracks", e);
+        }
+    }
+
+    /**
+     * @return the search terms in order, each with the track it resolved to, or null if nothing was found for it or the
+     * track fails to decode
+     */
+    public static List<Tuple2<String, AudioTrack>> decodeResolved(AudioPlayerManager playerManager, byte[] data)
+            throws IOException {
+        try (DataInputStream in = unframe(data)) {
+            int count = readCount(in);
+            List<Tuple2<String, AudioTrack>> resolved = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String searchTerm = in.readUTF();
+                resolved.add(new Tuple2<>(searchTerm, decodeTrack(playerManager, readBlob(in))));
+            }
+            return resolved;
+        }
+    }
+
+    //header, then the body, deflated if it is big enough
+    private static byte[] frame(byte[] body) throws IOException {
+        boolean compress = body.length >= COMPRESSION_THRESHOLD;
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.length + 3);
+        result.write(MAGIC);
+        result.write(VERSION);
+        result.write(compress ? FLAG_COMPRESSED : 0);
+        if (compress) {
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(result)) {
+                deflater.write(body);
+            }
+        } else {
+            result.write(body);
+        }
+        return result.toByteArray();
+    }
+
+    private static DataInputStream unframe(byte[] data) throws IOException {
+        if (!isEncoded(data)) {
+            throw new IOException("Not a track list in the compact format");
+        }
+        int version = data[1];
+        if (version != VERSION) {
+            throw new IOException("Unsupported track list format version " + version);
+        }
+        int flags = data[2];
+
+        InputStream body = new ByteArrayInputStream(data, 3, data.length - 3);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            body = new LimitedInputStream(new InflaterInputStream(body), MAX_BODY_BYTES);
+        }
+        return new DataInputStream(body);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_TRACKS) {
+            throw new IOException("Invalid track count " + count);
+        }
+        return count;
+    }
+
+    //length prefixed, -1 for null
+    private static void writeBlob(DataOutputStream out, @Nullable byte[] blob) throws IOException {
+        if (blob == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(blob.length);
+            out.write(blob);
+        }
+    }
+
+    @Nullable
+    private static byte[] readBlob(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > MAX_TRACK_BYTES) {
+            throw new IOException("Track of " + length + " bytes is too big");
+        }
+        byte[] blob = new byte[length];
+        in.readFully(blob);
+        return blob;
+    }
+
+    /**
+     * Fails reads past a limit, so a small deflated body can't inflate to something huge.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) consumed(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) consumed(read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            consumed(skipped);
+            return skipped;
+        }
+
+        private void consumed(long bytes) throws IOException {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new IOException("Track list is too big");
+            }
+        }
+    }
+
+    public static class ExportEntry {
+        @Nullable
+        public final String uri;
+        @Nullable
+        public final byte[] track;
+
+        public ExportEntry(@Nullable String uri, @Nullable byte[] track) {
+            this.uri = uri;
+            this.track = track;
+        }
+    }
+
+    public static class EncodedTrackList {
+        @Nullable
+        public final String name;
+        public final byte[][] tracks;
+        @Nullable
+        public final byte[] selectedTrack;
+        public final boolean isSearchResult;
+
+        public EncodedTrackList(@Nullable String name, byte[][] tracks, @Nullable byte[] selectedTrack,
+                                boolean isSearchResult) {
+            this.name = name;
+            this.tracks = tracks;
+            this.selectedTrack = selectedTrack;
+            this.isSearchResult = isSearchResult;
+        }
+    }
+}
@@ -134,9 +134,8 @@ public class Blacklist {
 
                 blacklistingLength = getBlacklistTimeLength(blEntry.level);
             }
-            //persist it
-            //if this turns up to be a performance bottleneck, have an agent run that persists the blacklist occasionally
-            EntityWriter.mergeBlacklistEntry(blEntry);
+            //persist it, the write behind coalesces repeated hits of the same id into a single write
+            EntityWriter.mergeBlacklistEntryDeferred(blEntry);
             return blacklistingLength;
         }
     }
@@ -26,28 +26,51 @@ package fredboat.util.ratelimit;
 
 import fredboat.FredBoat;
 import fredboat.messaging.internal.Context;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 import java.util.Collections;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.LongSupplier;
 
 /**
  * Created by napster on 17.04.17.
  * <p>
- * This class uses an algorithm based on leaky bucket, but is optimized, mainly we work around having tons of threads for
- * each bucket filling/emptying it, instead saving timestamps. As a result this class works better for shorter time
- * periods, as the amount of timestamps to hold decreases.
- * some calculations can be found here: https://docs.google.com/spreadsheets/d/1Afdn25AsFD-v3WQGp56rfVwO1y2d105IQk3dtfTcKwA/edit#gid=0
+ * A token bucket per user or guild, implemented as a generic cell rate algorithm: instead of counting tokens, each
+ * bucket holds a single timestamp, the moment at which it will be full again. A request is allowed as long as that
+ * moment is less than a full time span minus one request's worth of time away, and moves it further into the future.
+ * This allows maxRequests requests within the time span, refilling smoothly, with a single compare-and-set of a
+ * primitive field per request.
+ * <p>
+ * The buckets are kept in lock striped primitive maps, the locks are only held for the lookup itself. Buckets that
+ * have been full for a while carry no information anymore, they are removed from time to time by {@link #sweep()}.
  */
 public class Ratelimit {
 
     public enum Scope {USER, GUILD}
 
-    private final Long2ObjectOpenHashMap<Rate> limits;
-    private final long maxRequests;
-    private final long timeSpan;
+    //must be a power of two
+    private static final int SEGMENTS = 64;
+
+    //all times are in nanoseconds since this origin, so they are never negative and -1 is free to mark swept buckets
+    private static final long ORIGIN = System.nanoTime();
+    private static final long SWEPT = -1;
+
+    //outcomes of trying to take from a bucket
+    private static final int ALLOWED = 1;
+    private static final int LIMITED = 0;
+    private static final int RETRY = -1;
+
+    private final Long2ObjectOpenHashMap<Bucket>[] segments;
+    //time that one request takes up in a bucket
+    private final long emissionInterval;
+    //how far in the future a bucket may be full again for it to still allow a request
+    private final long tolerance;
+    //current time in nanoseconds, never negative
+    private final LongSupplier clock;
 
     //users that can never be limited
     private final Set<Long> userWhiteList;
@@ -71,12 +94,25 @@ public class Ratelimit {
      * @param clazz         the optional (=can be null) clazz of commands to be ratelimited by this ratelimiter
      */
     public Ratelimit(Set<Long> userWhiteList, Scope scope, long maxRequests, long milliseconds, Class clazz) {
-        this.limits = new Long2ObjectOpenHashMap<>();
+        this(userWhiteList, scope, maxRequests, milliseconds, clazz, Ratelimit::now);
+    }
+
+    //package private for tests, which need to control the time
+    @SuppressWarnings("unchecked")
+    Ratelimit(Set<Long> userWhiteList, Scope scope, long maxRequests, long milliseconds, Class clazz,
+              LongSupplier clock) {
+        this.segments = new Long2ObjectOpenHashMap[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Long2ObjectOpenHashMap<>();
+        }
+
+        long timeSpan = milliseconds * 1_000_000;
+        this.emissionInterval = timeSpan / maxRequests;
+        this.tolerance = timeSpan - emissionInterval;
+        this.clock = clock;
 
         this.userWhiteList = Collections.unmodifiableSet(userWhiteList);
         this.scope = scope;
-        this.maxRequests = maxRequests;
-        this.timeSpan = milliseconds;
         this.clazz = clazz;
     }
 
@@ -88,7 +124,7 @@ public class Ratelimit {
      * @return a RateResult object containing information whether the users request is rate limited or not and the reason for that
      * <p>
      * Caveat: This allows requests to overstep the ratelimit with single high weight requests.
-     * The clearing of timestamps ensures it will take longer for them to get available again though.
+     * The bucket will stay empty for correspondingly longer though.
      */
     public boolean isAllowed(Context context, int weight, Blacklist blacklist) {
         //This gets called real often, right before every command execution. Keep it light, don't do any blocking stuff,
@@ -102,31 +138,9 @@ public class Ratelimit {
             id = context.getGuild().getIdLong();
         }
 
-        Rate rate = limits.get(id);
-        if (rate == null)
-            rate = getOrCreateRate(id);
-
-        //synchronize on the individual rate objects since we are about to change and save them
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (rate) {
-            long now = System.currentTimeMillis();
-
-            //clear outdated timestamps
-            long maxTimeStampsToClear = (now - rate.lastUpdated) * maxRequests / timeSpan;
-            long cleared = 0;
-            while (rate.timeStamps.size() > 0 && rate.timeStamps.getLong(0) + timeSpan < now && cleared < maxTimeStampsToClear) {
-                rate.timeStamps.removeLong(0);
-                cleared++;
-            }
-
-            rate.lastUpdated = now;
-            //ALLOWED?
-            if (rate.timeStamps.size() < maxRequests) {
-                for (int i = 0; i < weight; i++)
-                    rate.timeStamps.add(now);
-                //everything is fine, get out of this method
-                return true;
-            }
+        if (tryAcquire(id, weight)) {
+            //everything is fine, get out of this method
+            return true;
         }
 
         //reaching this point in the code means a rate limit was hit
@@ -137,6 +151,32 @@ public class Ratelimit {
         return false;
     }
 
+    //package private for benchmarking and tests
+    boolean tryAcquire(long id, int weight) {
+        int result;
+        do {
+            Bucket bucket = getOrCreateBucket(id);
+            result = tryAcquire(bucket, clock.getAsLong(), weight);
+        } while (result == RETRY); //the bucket got swept or lifted while we were looking at it, get a fresh one
+        return result == ALLOWED;
+    }
+
+    private int tryAcquire(Bucket bucket, long now, int weight) {
+        while (true) {
+            long fullAt = bucket.fullAt;
+            if (fullAt == SWEPT) {
+                return RETRY;
+            }
+            long from = Math.max(fullAt, now);
+            if (from - now > tolerance) {
+                return LIMITED;
+            }
+            if (Bucket.FULL_AT.compareAndSet(bucket, fullAt, from + weight * emissionInterval)) {
+                return ALLOWED;
+            }
+        }
+    }
+
     /**
      * Notifies the autoblacklist that a user has hit a limit, and handles the response of the blacklist
      * Best run async as the blacklist might be hitting a database
@@ -152,59 +192,71 @@ public class Ratelimit {
         context.replyWithMention(out);
     }
 
+    private Bucket getOrCreateBucket(long id) {
+        Long2ObjectOpenHashMap<Bucket> segment = segmentOf(id);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (segment) {
+            Bucket bucket = segment.get(id);
+            if (bucket == null) {
+                bucket = new Bucket();
+                segment.put(id, bucket);
+            }
+            return bucket;
+        }
+    }
 
-    /**
-     * synchronize the creation of new Rate objects
-     */
-    private synchronized Rate getOrCreateRate(long id) {
-        //was one created on the meantime? use that
-        Rate result = limits.get(id);
-        if (result != null) return result;
-
-        //create, save and return it
-        result = new Rate(id);
-        limits.put(id, result);
-        return result;
+    private Long2ObjectOpenHashMap<Bucket> segmentOf(long id) {
+        return segments[(int) (HashCommon.mix(id) & (SEGMENTS - 1))];
     }
 
     /**
      * completely resets a limit for an id (user or guild for example)
      */
-    public synchronized void liftLimit(long id) {
-        limits.remove(id);
+    public void liftLimit(long id) {
+        Long2ObjectOpenHashMap<Bucket> segment = segmentOf(id);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (segment) {
+            Bucket bucket = segment.remove(id);
+            if (bucket != null) {
+                bucket.fullAt = SWEPT;
+            }
+        }
     }
 
-    class Rate {
-        //to whom this belongs
-        final long id;
-
-        //last time this object was updated
-        //useful for keeping track of how many timeStamps should be removed to ensure the limit is enforced
-        long lastUpdated;
-
-        //collects the requests
-        LongArrayList timeStamps;
-
-        private Rate(long id) {
-            this.id = id;
-            this.lastUpdated = System.currentTimeMillis();
-            this.timeStamps = new LongArrayList();
+    /**
+     * Removes the buckets that are full, as they are no different from a fresh bucket.
+     *
+     * @return amount of buckets left
+     */
+    public int sweep() {
+        long now = clock.getAsLong();
+        int left = 0;
+        for (Long2ObjectOpenHashMap<Bucket> segment : segments) {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (segment) {
+                ObjectIterator<Long2ObjectMap.Entry<Bucket>> it = segment.long2ObjectEntrySet().fastIterator();
+                while (it.hasNext()) {
+                    Bucket bucket = it.next().getValue();
+                    long fullAt = bucket.fullAt;
+                    //a request racing us wins if it gets its compare-and-set in first, then the bucket stays
+                    if (fullAt <= now && Bucket.FULL_AT.compareAndSet(bucket, fullAt, SWEPT)) {
+                        it.remove();
+                    }
+                }
+                left += segment.size();
+            }
         }
+        return left;
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Rate rate = (Rate) o;
-            return id == rate.id &&
-                    lastUpdated == rate.lastUpdated &&
-                    Objects.equals(timeStamps, rate.timeStamps);
-        }
+    private static long now() {
+        return System.nanoTime() - ORIGIN;
+    }
 
-        @Override
-        public int hashCode() {
+    private static final class Bucket {
+        private static final AtomicLongFieldUpdater<Bucket> FULL_AT = AtomicLongFieldUpdater.newUpdater(Bucket.class, "fullAt");
 
-            return Objects.hash(id, lastUpdated, timeStamps);
-        }
+        //the moment this bucket will be full again, or SWEPT once it has been removed from the map
+        private volatile long fullAt = 0;
     }
 }
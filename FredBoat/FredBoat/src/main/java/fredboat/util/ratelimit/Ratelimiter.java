@@ -72,6 +72,24 @@ public class Ratelimiter {
         return singleton;
     }
 
+    /**
+     * Drops the buckets of users and guilds that have not been limited for a while. Does nothing if the ratelimiter
+     * has not been created yet.
+     *
+     * @return amount of buckets still being tracked
+     */
+    public static int sweepIdle() {
+        Ratelimiter singleton = ratelimiterSingleton;
+        if (singleton == null) {
+            return 0;
+        }
+        int left = 0;
+        for (Ratelimit ratelimit : singleton.ratelimits) {
+            left += ratelimit.sweep();
+        }
+        return left;
+    }
+
     private final List<Ratelimit> ratelimits;
     private Blacklist autoBlacklist;
 
@@ -25,57 +25,72 @@
 
 package fredboat.util.rest;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import fredboat.feature.metrics.Metrics;
+import org.apache.commons.io.FileUtils;
 
-import java.io.*;
-import java.net.URL;
-import java.util.HashMap;
-import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
 
 public class CacheUtil {
 
-    private static HashMap<String, File> cachedURLFiles = new HashMap<>();
-    private static final Logger log = LoggerFactory.getLogger(CacheUtil.class);
+    //contents of files we send often, like the images of the fun commands, so they don't have to be read from disk
+    // every time. keyed by path and modification time, so a changed file is never served stale
+    private static final long FILE_BYTES_MAX_WEIGHT = 64 * 1024 * 1024; //64 MiB
+    private static final Cache<String, byte[]> FILE_BYTES = CacheBuilder.newBuilder()
+            .recordStats()
+            .maximumWeight(FILE_BYTES_MAX_WEIGHT)
+            .weigher((String key, byte[] bytes) -> bytes.length)
+            .build();
+
+    //images downloaded for commands that send them as files
+    private static final int IMAGES_MAX_FILES = 1000;
+    private static final long IMAGES_MAX_BYTES = 512 * 1024 * 1024; //512 MiB
+    private static final ImageCache IMAGES = new ImageCache(
+            new File(System.getProperty("java.io.tmpdir"), "fredboat-images"),
+            IMAGES_MAX_FILES,
+            IMAGES_MAX_BYTES,
+            file -> FILE_BYTES.invalidate(fileBytesKey(file)),
+            (file, bytes) -> FILE_BYTES.put(fileBytesKey(file), bytes)
+    );
+
+    static {
+        Metrics.instance().cacheMetrics.addCache("fileBytes", FILE_BYTES);
+    }
 
     private CacheUtil() {
     }
 
     public static File getImageFromURL(final String url) {
-        if (cachedURLFiles.containsKey(url) && cachedURLFiles.get(url).exists()) {
-            //Already cached
-            return cachedURLFiles.get(url);
-        } else {
-            final InputStream is;
-            final File tmpFile;
-            try {
-                final Matcher matcher = Pattern.compile("(\\.\\w+$)").matcher(url);
-                final String type = matcher.find() ? matcher.group(1) : "";
-                tmpFile = File.createTempFile(UUID.randomUUID().toString(), type);
-            } catch (final IOException e) {
-                throw new RuntimeException("Could not create a temporary file");
-            }
-            try (final FileOutputStream fos = new FileOutputStream(tmpFile)) {
-                is = new URL(url).openStream();
-                final byte[] buffer = new byte[1024 * 10];
-                int bytesRead;
-                while ((bytesRead = is.read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                }
-                is.close();
-                fos.close();
+        return IMAGES.get(url);
+    }
 
-                cachedURLFiles.put(url, tmpFile);
-                return tmpFile;
-            } catch (final IOException e) {
-                if (!tmpFile.delete()) {
-                    log.error("Could not delete temporary file {}", tmpFile.getAbsolutePath());
-                }
-                throw new RuntimeException(e);
+    /**
+     * Downloads images in the background that are likely to be requested through {@link #getImageFromURL(String)}
+     */
+    public static void prefetchImages(Collection<String> urls) {
+        IMAGES.prefetch(urls);
+    }
+
+    /**
+     * @return the content of the file, served from memory if it has been read before and did not change since
+     */
+    public static byte[] readFileToByteArray(File file) throws IOException {
+        try {
+            return FILE_BYTES.get(fileBytesKey(file), () -> FileUtils.readFileToByteArray(file));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw new IOException("Could not read file " + file.getAbsolutePath(), e.getCause());
         }
     }
 
+    private static String fileBytesKey(File file) {
+        return file.getAbsolutePath() + "@" + file.lastModified();
+    }
+
 }
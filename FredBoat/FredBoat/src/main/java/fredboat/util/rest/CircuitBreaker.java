@@ -0,0 +1,236 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import fredboat.feature.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Sheds calls to an upstream service that keeps failing or answering slowly, instead of tying up threads waiting on it.
+ * <p>
+ * Closed: calls go through, and the outcomes of the last {@link #WINDOW_SIZE} calls are recorded. Once at least
+ * {@link #MINIMUM_CALLS} of them are recorded and the share of failed or slow calls reaches the failure rate
+ * threshold, the breaker opens.
+ * Open: calls are rejected right away until the open duration is over.
+ * Half open: a single trial call is let through. If it succeeds the breaker closes again, otherwise it opens again.
+ * <p>
+ * Breakers are shared by name, get one with {@link #forName(String)}.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public static final int WINDOW_SIZE = 20;
+    public static final int MINIMUM_CALLS = 10;
+    private static final double FAILURE_RATE_THRESHOLD = 0.5;
+    private static final long SLOW_CALL_THRESHOLD_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long OPEN_DURATION_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ConcurrentHashMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    /**
+     * @return the breaker guarding the upstream service with the provided name, created if it doesn't exist yet
+     */
+    @Nonnull
+    public static CircuitBreaker forName(@Nonnull String name) {
+        return BREAKERS.computeIfAbsent(name, CircuitBreaker::new);
+    }
+
+    public enum State {
+        CLOSED(0),
+        OPEN(1),
+        HALF_OPEN(2);
+
+        private final int metricValue;
+
+        State(int metricValue) {
+            this.metricValue = metricValue;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private final String name;
+
+    //ring buffer of the outcomes of the last calls, true = failed or slow
+    private final boolean[] window = new boolean[WINDOW_SIZE];
+    private int windowPosition = 0;
+    private int recordedCalls = 0;
+    private int failedCalls = 0;
+
+    private State state = State.CLOSED;
+    private long openUntil = 0;
+    private boolean trialCallRunning = false;
+
+    private CircuitBreaker(String name) {
+        this.name = name;
+        Metrics.circuitBreakerState.labels(name).set(State.CLOSED.metricValue);
+    }
+
+    /**
+     * Run the call through this breaker.
+     *
+     * @param call   the call to the upstream service
+     * @param onOpen creates the exception to be thrown when the call is rejected because the breaker is open
+     * @return whatever the call returns
+     * @throws E the exception thrown by the call, or created by onOpen
+     */
+    public <T, E extends Exception> T execute(@Nonnull Call<T, E> call, @Nonnull Supplier<E> onOpen) throws E {
+        if (!tryAcquire()) {
+            Metrics.circuitBreakerCalls.labels(name, "rejected").inc();
+            throw onOpen.get();
+        }
+
+        long started = System.nanoTime();
+        T result;
+        try {
+            result = call.call();
+        } catch (Exception e) {
+            //the caller gave up on this call, that says nothing about the health of the upstream service
+            if (Thread.currentThread().isInterrupted()) {
+                Metrics.circuitBreakerCalls.labels(name, "cancelled").inc();
+                release();
+            } else {
+                Metrics.circuitBreakerCalls.labels(name, "failure").inc();
+                onFailure();
+            }
+            throw e;
+        }
+        if (System.nanoTime() - started > SLOW_CALL_THRESHOLD_NANOS) {
+            Metrics.circuitBreakerCalls.labels(name, "slow").inc();
+            onFailure();
+        } else {
+            Metrics.circuitBreakerCalls.labels(name, "success").inc();
+            onSuccess();
+        }
+        return result;
+    }
+
+    /**
+     * Open the breaker right away, for upstream services telling us explicitly to back off.
+     */
+    public synchronized void trip(long durationMillis) {
+        open(durationMillis);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                //fall through to let this call be the trial call
+            case HALF_OPEN:
+            default:
+                if (trialCallRunning) {
+                    return false;
+                }
+                trialCallRunning = true;
+                return true;
+        }
+    }
+
+    //give up the trial call permit without recording an outcome
+    private synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            trialCallRunning = false;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            trialCallRunning = false;
+            resetWindow();
+            transition(State.CLOSED);
+            log.info("Circuit breaker {} closed again", name);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    //failed or slow calls
+    private synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            trialCallRunning = false;
+            open(OPEN_DURATION_MILLIS);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recordedCalls >= MINIMUM_CALLS && failedCalls >= recordedCalls * FAILURE_RATE_THRESHOLD) {
+                log.warn("Circuit breaker {} opened, {} of the last {} calls failed", name, failedCalls, recordedCalls);
+                open(OPEN_DURATION_MILLIS);
+            }
+        }
+    }
+
+    private void record(boolean failed) {
+        if (recordedCalls == WINDOW_SIZE) {
+            if (window[windowPosition]) failedCalls--;
+        } else {
+            recordedCalls++;
+        }
+        window[windowPosition] = failed;
+        if (failed) failedCalls++;
+        windowPosition = (windowPosition + 1) % WINDOW_SIZE;
+    }
+
+    private void resetWindow() {
+        windowPosition = 0;
+        recordedCalls = 0;
+        failedCalls = 0;
+    }
+
+    private void open(long durationMillis) {
+        openUntil = Math.max(openUntil, System.currentTimeMillis() + durationMillis);
+        trialCallRunning = false;
+        resetWindow();
+        transition(State.OPEN);
+    }
+
+    private void transition(State newState) {
+        state = newState;
+        Metrics.circuitBreakerState.labels(name).set(newState.metricValue);
+    }
+}
@@ -170,6 +170,25 @@ public class Http {
         public JSONObject asJson() throws IOException {
             return new JSONObject(asString());
         }
+
+        //give me the content, but throw a HttpStatusException if the response isn't successful instead of handing out
+        // the error page as content
+        @CheckReturnValue
+        public String asStringChecked() throws IOException {
+            try (Response response = this.execute()) {
+                if (!response.isSuccessful()) {
+                    throw new HttpStatusException(response);
+                }
+                //noinspection ConstantConditions
+                return response.body().string();
+            }
+        }
+
+        //like asStringChecked(), parsed as json
+        @CheckReturnValue
+        public JSONObject asJsonChecked() throws IOException {
+            return new JSONObject(asStringChecked());
+        }
     }
 
     /**
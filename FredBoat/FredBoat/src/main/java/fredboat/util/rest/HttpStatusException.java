@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import okhttp3.Response;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Thrown when a request got a response with an unsuccessful status code, so that callers like circuit breakers can tell
+ * error responses apart from content.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    @Nullable
+    private final String retryAfter;
+
+    public HttpStatusException(Response response) {
+        //only the host and path, the query may carry api keys
+        super("Unexpected response code " + response.code() + " for " + response.request().method() + " "
+                + response.request().url().host() + response.request().url().encodedPath());
+        this.code = response.code();
+        this.retryAfter = response.header("Retry-After");
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return value of the Retry-After header of the response, if it had one
+     */
+    @Nullable
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import fredboat.feature.metrics.Metrics;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps downloaded images as files in a directory of its own.
+ * <p>
+ * The least recently used images are deleted once there are more than the allowed number of files or bytes. Concurrent
+ * requests for an image that is not cached yet share a single download. The index of cached images is written to the
+ * directory, so the files survive a restart of the bot.
+ */
+public class ImageCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageCache.class);
+
+    private static final Pattern FILE_TYPE = Pattern.compile("(\\.\\w+$)");
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final long INDEX_SAVE_DELAY_SECONDS = 10;
+    //longer than a download takes when it doesn't run into the timeouts of the http client
+    private static final long JOIN_TIMEOUT_SECONDS = 60;
+
+    private final File directory;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final Consumer<File> onEvicted;
+    private final BiConsumer<File, byte[]> onDownloaded;
+
+    //url -> cached image, in access order so the eldest entry is the least recently used one. guarded by itself
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0; //guarded by index
+    private boolean indexSaveScheduled = false; //guarded by index
+
+    //downloads in progress, so that concurrent misses of the same url wait for the same download
+    private final Map<String, CompletableFuture<File>> downloads = new ConcurrentHashMap<>();
+
+    //prefetches images, one at a time so prefetching does not hog the bandwidth
+    private final ScheduledExecutorService prefetcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-cache-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //saves the index, apart from the prefetcher so a long queue of prefetches does not hold up the saves
+    private final ScheduledExecutorService indexSaver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-cache-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param onEvicted    called with an image file right before it gets deleted
+     * @param onDownloaded called with a freshly downloaded image file and its content
+     */
+    public ImageCache(@Nonnull File directory, int maxFiles, long maxBytes, @Nonnull Consumer<File> onEvicted,
+                      @Nonnull BiConsumer<File, byte[]> onDownloaded) {
+        this.directory = directory;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.onEvicted = onEvicted;
+        this.onDownloaded = onDownloaded;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            log.error("Could not create image cache directory {}", directory.getAbsolutePath());
+        }
+        loadIndex();
+    }
+
+    /**
+     * @return a file with the image behind the url, downloading it if it isn't cached yet
+     */
+    @Nonnull
+    public File get(@Nonnull String url) {
+        File cached = getCached(url);
+        if (cached != null) {
+            Metrics.imageCacheLookups.labels("hit").inc();
+            return cached;
+        }
+
+        CompletableFuture<File> download = new CompletableFuture<>();
+        CompletableFuture<File> running = downloads.putIfAbsent(url, download);
+        if (running != null) {
+            Metrics.imageCacheLookups.labels("joined").inc();
+            try {
+                return running.get(JOIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the download of " + url, e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new RuntimeException("Timed out waiting for the download of " + url, e);
+            }
+        }
+
+        try {
+            //the download that just finished may have been the one we missed
+            File file = getCached(url);
+            if (file != null) {
+                Metrics.imageCacheLookups.labels("hit").inc();
+            } else {
+                Metrics.imageCacheLookups.labels("miss").inc();
+                file = download(url);
+            }
+            download.complete(file);
+            return file;
+        } catch (RuntimeException e) {
+            download.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloads.remove(url, download);
+        }
+    }
+
+    /**
+     * Downloads the images in the background, unless they are cached already.
+     */
+    public void prefetch(@Nonnull Collection<String> urls) {
+        for (String url : urls) {
+            prefetcher.execute(() -> {
+                if (getCached(url) != null) {
+                    return;
+                }
+                try {
+                    get(url);
+                } catch (Exception e) {
+                    log.debug("Could not prefetch image {}", url, e);
+                }
+            });
+        }
+    }
+
+    private File getCached(String url) {
+        synchronized (index) {
+            Entry entry = index.get(url);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.file.exists()) {
+                return entry.file;
+            }
+            //someone cleaned up our files behind our back
+            remove(url, entry);
+            return null;
+        }
+    }
+
+    private File download(String url) {
+        //throws right away for malformed urls, before any file is created
+        final Http.SimpleRequest request = Http.get(url);
+        final File tmpFile;
+        try {
+            final Matcher matcher = FILE_TYPE.matcher(url);
+            final String type = matcher.find() ? matcher.group(1) : "";
+            tmpFile = File.createTempFile(UUID.randomUUID().toString(), type, directory);
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not create a temporary file");
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final FileOutputStream fos = new FileOutputStream(tmpFile);
+             final Response response = request.execute()) {
+            final ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("Unexpected response " + response.code() + " when downloading " + url);
+            }
+            final InputStream is = body.byteStream();
+            final byte[] buffer = new byte[1024 * 10];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                fos.write(buffer, 0, bytesRead);
+                bytes.write(buffer, 0, bytesRead);
+            }
+        } catch (final IOException e) {
+            if (!tmpFile.delete()) {
+                log.error("Could not delete temporary file {}", tmpFile.getAbsolutePath());
+            }
+            throw new RuntimeException(e);
+        }
+
+        byte[] content = bytes.toByteArray();
+        onDownloaded.accept(tmpFile, content);
+        add(url, new Entry(tmpFile, content.length));
+        return tmpFile;
+    }
+
+    private void add(String url, Entry entry) {
+        synchronized (index) {
+            Entry previous = index.put(url, entry);
+            if (previous != null) {
+                totalBytes -= previous.size;
+                delete(previous);
+            }
+            totalBytes += entry.size;
+
+            //always keep the newest image, even if it is larger than the whole cache is allowed to be
+            Iterator<Entry> eldest = index.values().iterator();
+            while ((index.size() > maxFiles || totalBytes > maxBytes) && index.size() > 1) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                totalBytes -= evicted.size;
+                delete(evicted);
+                Metrics.imageCacheEvictions.inc();
+            }
+            indexChanged();
+        }
+    }
+
+    private void remove(String url, Entry entry) {
+        synchronized (index) {
+            if (index.remove(url, entry)) {
+                totalBytes -= entry.size;
+                indexChanged();
+            }
+        }
+    }
+
+    private void delete(Entry entry) {
+        onEvicted.accept(entry.file);
+        if (entry.file.exists() && !entry.file.delete()) {
+            log.warn("Could not delete cached image {}", entry.file.getAbsolutePath());
+        }
+    }
+
+    //call while holding the index lock
+    private void indexChanged() {
+        Metrics.imageCacheFiles.set(index.size());
+        Metrics.imageCacheBytes.set(totalBytes);
+        if (!indexSaveScheduled) {
+            indexSaveScheduled = true;
+            indexSaver.schedule(this::saveIndex, INDEX_SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void saveIndex() {
+        JSONArray entries = new JSONArray();
+        synchronized (index) {
+            indexSaveScheduled = false;
+            //least recently used first, so loading them in order restores the order
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                entries.put(new JSONObject()
+                        .put("url", entry.getKey())
+                        .put("file", entry.getValue().file.getName())
+                        .put("size", entry.getValue().size));
+            }
+        }
+
+        try {
+            File tmp = new File(directory, INDEX_FILE_NAME + ".tmp");
+            Files.write(tmp.toPath(), entries.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), new File(directory, INDEX_FILE_NAME).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save the image cache index", e);
+        }
+    }
+
+    //picks up the images cached before the last restart, and cleans up any files that aren't part of the index
+    private void loadIndex() {
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        Set<String> known = new HashSet<>();
+        known.add(INDEX_FILE_NAME);
+        if (indexFile.exists()) {
+            try {
+                JSONArray entries = new JSONArray(new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8));
+                synchronized (index) {
+                    for (int i = 0; i < entries.length(); i++) {
+                        JSONObject json = entries.getJSONObject(i);
+                        File file = new File(directory, json.getString("file"));
+                        long size = json.getLong("size");
+                        if (file.isFile() && file.length() == size) {
+                            index.put(json.getString("url"), new Entry(file, size));
+                            totalBytes += size;
+                            known.add(file.getName());
+                        }
+                    }
+                }
+                log.info("Loaded {} cached images", entries.length());
+            } catch (IOException | JSONException e) {
+                log.warn("Could not load the image cache index, starting with an empty cache", e);
+            }
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!known.contains(file.getName()) && !file.delete()) {
+                    log.warn("Could not delete stale cached image {}", file.getAbsolutePath());
+                }
+            }
+        }
+
+        synchronized (index) {
+            Metrics.imageCacheFiles.set(index.size());
+            Metrics.imageCacheBytes.set(totalBytes);
+        }
+    }
+
+    private static class Entry {
+        private final File file;
+        private final long size;
+
+        private Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
@@ -25,6 +25,8 @@
 
 package fredboat.util.rest;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
@@ -37,21 +39,29 @@ import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
 import fredboat.Config;
 import fredboat.FredBoat;
 import fredboat.db.DatabaseNotReadyException;
+import fredboat.db.EntityRepository;
 import fredboat.db.entity.SearchResult;
 import fredboat.feature.metrics.Metrics;
 import fredboat.feature.togglz.FeatureFlags;
+import io.github.bucket4j.Bucket;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 
 public class SearchUtil {
 
@@ -59,6 +69,8 @@ public class SearchUtil {
     public static final int MAX_RESULTS = 5;
     public static final long DEFAULT_CACHE_MAX_AGE = TimeUnit.HOURS.toMillis(24); //24 hours
     public static final String PUNCTUATION_REGEX = "[.,/#!$%^&*;:{}=\\-_`~()\"\']";
+    private static final Pattern PUNCTUATION_PATTERN = Pattern.compile(PUNCTUATION_REGEX);
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
 
     private static final Logger log = LoggerFactory.getLogger(SearchUtil.class);
 
@@ -67,7 +79,32 @@ public class SearchUtil {
 
     //give youtube a break if we get flagged and keep getting 503s
     private static final long DEFAULT_YOUTUBE_COOLDOWN = TimeUnit.MINUTES.toMillis(10); // 10 minutes
-    private static long youtubeCooldownUntil;
+
+    private static final long LAST_ACCESS_RESOLUTION = TimeUnit.HOURS.toMillis(6);
+    //the database cache is only worth it if it is a lot faster than asking the provider
+    private static final long CACHE_READ_TIMEOUT_MILLIS = 500;
+
+    //in memory tier in front of the database search cache, holding decoded search results
+    private static final int MEMORY_CACHE_MAX_SIZE = 5000;
+    private static final long MEMORY_CACHE_MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    public static final Cache<String, CachedSearch> MEMORY_CACHE = CacheBuilder.newBuilder()
+            .recordStats()
+            .maximumSize(MEMORY_CACHE_MAX_SIZE)
+            .expireAfterWrite(MEMORY_CACHE_MAX_AGE, TimeUnit.MILLISECONDS)
+            .build();
+
+    //providers that had no matches for a query, so junk queries don't hit them again and again
+    private static final long NO_MATCHES_MAX_AGE = TimeUnit.MINUTES.toMillis(10);
+    private static final Cache<String, Boolean> NO_MATCHES = CacheBuilder.newBuilder()
+            .recordStats()
+            .maximumSize(MEMORY_CACHE_MAX_SIZE)
+            .expireAfterWrite(NO_MATCHES_MAX_AGE, TimeUnit.MILLISECONDS)
+            .build();
+
+    static {
+        Metrics.instance().cacheMetrics.addCache("searchResults", MEMORY_CACHE);
+        Metrics.instance().cacheMetrics.addCache("searchNoMatches", NO_MATCHES);
+    }
 
     private static AudioPlayerManager initPlayerManager() {
         DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
@@ -95,95 +132,409 @@ public class SearchUtil {
      */
     public static AudioPlaylist searchForTracks(String query, long cacheMaxAge, int timeoutMillis, List<SearchProvider> providers)
             throws SearchingException {
-        Metrics.searchRequests.inc();
+        return searchForTracks(query, cacheMaxAge, timeoutMillis, providers, null);
+    }
 
-        List<SearchProvider> provs = new ArrayList<>();
-        if (providers == null || providers.isEmpty()) {
-            log.warn("No search provider provided, defaulting to youtube -> soundcloud.");
-            provs.add(SearchProvider.YOUTUBE);
-            provs.add(SearchProvider.SOUNDCLOUD);
-        } else {
-            provs.addAll(providers);
+    /**
+     * @param remoteBudget Each search that can't be answered from the caches takes a token out of this bucket, waiting
+     *                     for one if necessary. Null for no limit.
+     * @see #searchForTracks(String, long, int, List)
+     */
+    public static AudioPlaylist searchForTracks(String query, long cacheMaxAge, int timeoutMillis, List<SearchProvider> providers,
+                                                @Nullable Bucket remoteBudget) throws SearchingException {
+        long hedgeDelay = Config.CONFIG.getSearchHedgeDelayMillis();
+        if (hedgeDelay >= 0) {
+            return searchForTracksHedged(query, cacheMaxAge, timeoutMillis, hedgeDelay, providers, remoteBudget);
         }
 
+        Metrics.searchRequests.inc();
+        long started = System.nanoTime();
+        List<SearchProvider> provs = withDefaults(providers);
+        String cacheKey = normalizeQuery(query);
+
         SearchingException searchingException = null;
 
         for (SearchProvider provider : provs) {
-            //1. cache
-            AudioPlaylist cacheResult = fromCache(provider, query, cacheMaxAge);
-            if (cacheResult != null && !cacheResult.getTracks().isEmpty()) {
-                log.debug("Loaded search result {} {} from cache", provider, query);
-                Metrics.searchHits.labels("cache").inc();
-                return cacheResult;
+            try {
+                ProviderResult result = searchProvider(provider, query, cacheKey, cacheMaxAge, timeoutMillis, remoteBudget);
+                if (result != null) {
+                    Metrics.searchHits.labels(result.source).inc();
+                    observeSearch("sequential", "result", started);
+                    return result.playlist;
+                }
+            } catch (SearchingException e) {
+                searchingException = e;
             }
+        }
 
-            //2. lavaplayer todo break up this beautiful construction of ifs and exception handling in a better readable one?
-            if (provider != SearchProvider.YOUTUBE || System.currentTimeMillis() > youtubeCooldownUntil) {
-                try {
-                    AudioPlaylist lavaplayerResult = new SearchResultHandler().searchSync(provider, query, timeoutMillis);
-                    if (!lavaplayerResult.getTracks().isEmpty()) {
-                        log.debug("Loaded search result {} {} from lavaplayer", provider, query);
-                        // got a search result? cache and return it
-                        FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, query, lavaplayerResult).save());
-                        Metrics.searchHits.labels("lavaplayer-" + provider.name().toLowerCase()).inc();
-                        return lavaplayerResult;
+        return noResult(query, searchingException, "sequential", started);
+    }
+
+    /**
+     * Search the providers in order of their priority, but don't wait for a slow provider before asking the next one:
+     * each provider is started once the one before it either came back empty or failed, or after hedgeDelayMillis at
+     * the latest. The result of the highest priority provider that has one is returned as soon as all providers in
+     * front of it are done, and the searches still running are cancelled.
+     *
+     * @param hedgeDelayMillis How long to wait for a provider before the next one is asked in parallel
+     * @see #searchForTracks(String, long, int, List, Bucket)
+     */
+    public static AudioPlaylist searchForTracksHedged(String query, long cacheMaxAge, int timeoutMillis,
+                                                      long hedgeDelayMillis, List<SearchProvider> providers,
+                                                      @Nullable Bucket remoteBudget) throws SearchingException {
+        Metrics.searchRequests.inc();
+        long started = System.nanoTime();
+        List<SearchProvider> provs = withDefaults(providers);
+        String cacheKey = normalizeQuery(query);
+
+        //the caches are cheap, check all of them before firing off any actual searches
+        for (SearchProvider provider : provs) {
+            ProviderResult cached = fromCaches(provider, cacheKey, cacheMaxAge);
+            if (cached != null) {
+                Metrics.searchHits.labels(cached.source).inc();
+                observeSearch("hedged", "result", started);
+                return cached.playlist;
+            }
+        }
+
+        BlockingQueue<Integer> completions = new LinkedBlockingQueue<>();
+        List<Future<ProviderResult>> searches = new ArrayList<>(provs.size());
+        //each provider may take a few timeouts (lavaplayer + youtube api), give up on all of them after that
+        long deadline = System.currentTimeMillis() + timeoutMillis * 2L * provs.size();
+        long nextHedgeAt = 0;
+        SearchingException searchingException = null;
+
+        try {
+            while (true) {
+                //walk the providers in order of priority, stop at the first one that is still busy
+                boolean allDone = true;
+                for (Future<ProviderResult> search : searches) {
+                    if (!search.isDone()) {
+                        allDone = false;
+                        break;
                     }
-                } catch (Http503Exception e) {
-                    if (provider == SearchProvider.YOUTUBE) {
-                        log.warn("Got a 503 from Youtube. Not hitting it with searches it for {} minutes", TimeUnit.MILLISECONDS.toMinutes(DEFAULT_YOUTUBE_COOLDOWN));
-                        youtubeCooldownUntil = System.currentTimeMillis() + DEFAULT_YOUTUBE_COOLDOWN;
+                    try {
+                        ProviderResult result = search.get();
+                        if (result != null) {
+                            Metrics.searchHits.labels(result.source).inc();
+                            observeSearch("hedged", "result", started);
+                            return result.playlist;
+                        }
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof SearchingException) {
+                            searchingException = (SearchingException) e.getCause();
+                        } else {
+                            searchingException = new SearchingException("Unexpected exception while searching", e);
+                        }
                     }
-                    searchingException = e;
-                } catch (SearchingException e) {
-                    searchingException = e;
                 }
-            }
 
-            //3. optional: youtube api
-            if (provider == SearchProvider.YOUTUBE &&
-                    (Config.CONFIG.isPatronDistribution() || Config.CONFIG.isDevDistribution())) {
-                try {
-                    AudioPlaylist youtubeApiResult = YoutubeAPI.search(query, MAX_RESULTS, PLAYER_MANAGER.source(YoutubeAudioSourceManager.class));
-                    if (!youtubeApiResult.getTracks().isEmpty()) {
-                        log.debug("Loaded search result {} {} from Youtube API", provider, query);
-                        // got a search result? cache and return it
-                        FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, query, youtubeApiResult).save());
-                        Metrics.searchHits.labels("youtube-api").inc();
-                        return youtubeApiResult;
-                    }
-                } catch (SearchingException e) {
-                    searchingException = e;
+                long now = System.currentTimeMillis();
+                if (searches.size() < provs.size() && (allDone || now >= nextHedgeAt)) {
+                    SearchProvider next = provs.get(searches.size());
+                    int index = searches.size();
+                    searches.add(FredBoat.executor.submit(() -> {
+                        try {
+                            return searchProviderRemote(next, query, cacheKey, timeoutMillis, remoteBudget);
+                        } finally {
+                            completions.add(index);
+                        }
+                    }));
+                    nextHedgeAt = now + hedgeDelayMillis;
+                    continue;
+                }
+
+                if (allDone) {
+                    //every provider has been asked and none has a result
+                    return noResult(query, searchingException, "hedged", started);
                 }
+
+                if (now >= deadline) {
+                    Metrics.searchHits.labels("exception").inc();
+                    observeSearch("hedged", "exception", started);
+                    throw new SearchingException(String.format("Hedged search for %s timed out after %sms",
+                            query, timeoutMillis * 2L * provs.size()));
+                }
+
+                long waitUntil = searches.size() < provs.size() ? Math.min(nextHedgeAt, deadline) : deadline;
+                completions.poll(Math.max(1, waitUntil - now), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SearchingException("Interrupted while searching for " + query, e);
+        } finally {
+            for (Future<ProviderResult> search : searches) {
+                search.cancel(true);
             }
         }
+    }
 
+    private static List<SearchProvider> withDefaults(@Nullable List<SearchProvider> providers) {
+        List<SearchProvider> provs = new ArrayList<>();
+        if (providers == null || providers.isEmpty()) {
+            log.warn("No search provider provided, defaulting to youtube -> soundcloud.");
+            provs.add(SearchProvider.YOUTUBE);
+            provs.add(SearchProvider.SOUNDCLOUD);
+        } else {
+            provs.addAll(providers);
+        }
+        return provs;
+    }
+
+    private static AudioPlaylist noResult(String query, @Nullable SearchingException searchingException, String mode,
+                                          long startedNanos) throws SearchingException {
         //did we run into searching exceptions that made us end up here?
         if (searchingException != null) {
             Metrics.searchHits.labels("exception").inc();
+            observeSearch(mode, "exception", startedNanos);
             throw searchingException;
         }
         //no result with any of the search providers
         Metrics.searchHits.labels("empty").inc();
+        observeSearch(mode, "empty", startedNanos);
         return new BasicAudioPlaylist("Search result for: " + query, Collections.emptyList(), null, true);
     }
 
-    private static AudioPlaylist fromCache(SearchProvider provider, String query, long cacheMaxAge) {
+    private static void observeSearch(String mode, String outcome, long startedNanos) {
+        Metrics.searchDuration.labels(mode, outcome).observe((System.nanoTime() - startedNanos) / 1_000_000_000.0);
+    }
+
+    /**
+     * @return a non empty result of this provider, or null if there is none
+     */
+    @Nullable
+    private static ProviderResult searchProvider(SearchProvider provider, String query, String cacheKey, long cacheMaxAge,
+                                                 int timeoutMillis, @Nullable Bucket remoteBudget)
+            throws SearchingException {
+        ProviderResult cached = fromCaches(provider, cacheKey, cacheMaxAge);
+        if (cached != null) {
+            return cached;
+        }
+        return searchProviderRemote(provider, query, cacheKey, timeoutMillis, remoteBudget);
+    }
+
+    @Nullable
+    private static ProviderResult fromCaches(SearchProvider provider, String cacheKey, long cacheMaxAge) {
+        //1a. in memory cache
+        AudioPlaylist memoryResult = fromMemory(provider, cacheKey, cacheMaxAge);
+        if (memoryResult != null && !memoryResult.getTracks().isEmpty()) {
+            log.debug("Loaded search result {} {} from memory", provider, cacheKey);
+            return new ProviderResult(memoryResult, "cache-memory");
+        }
+
+        //1b. database cache
+        AudioPlaylist cacheResult = fromCache(provider, cacheKey, cacheMaxAge);
+        if (cacheResult != null && !cacheResult.getTracks().isEmpty()) {
+            log.debug("Loaded search result {} {} from cache", provider, cacheKey);
+            return new ProviderResult(cacheResult, "cache-database");
+        }
+        return null;
+    }
+
+    @Nullable
+    private static ProviderResult searchProviderRemote(SearchProvider provider, String query, String cacheKey,
+                                                       int timeoutMillis, @Nullable Bucket remoteBudget)
+            throws SearchingException {
+        //the provider had nothing for this query recently, don't bother asking it again
+        if (NO_MATCHES.getIfPresent(memoryCacheKey(provider, cacheKey)) != null) {
+            log.debug("Search {} {} had no matches recently, skipping", provider, cacheKey);
+            return null;
+        }
+
+        if (remoteBudget != null) {
+            try {
+                remoteBudget.consume(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SearchingException("Interrupted while waiting for the search budget", e);
+            }
+        }
+
+        long started = System.nanoTime();
+        String outcome = "empty";
+        try {
+            ProviderResult result = searchProviderRemote0(provider, query, cacheKey, timeoutMillis);
+            if (result != null) {
+                outcome = "result";
+            } else {
+                NO_MATCHES.put(memoryCacheKey(provider, cacheKey), Boolean.TRUE);
+            }
+            return result;
+        } catch (SearchingException e) {
+            outcome = Thread.currentThread().isInterrupted() ? "cancelled" : "exception";
+            throw e;
+        } finally {
+            Metrics.searchProviderDuration.labels(provider.name().toLowerCase(), outcome)
+                    .observe((System.nanoTime() - started) / 1_000_000_000.0);
+        }
+    }
+
+    @Nullable
+    private static ProviderResult searchProviderRemote0(SearchProvider provider, String query, String cacheKey,
+                                                        int timeoutMillis) throws SearchingException {
+        SearchingException searchingException = null;
+
+        //2. lavaplayer
+        try {
+            AudioPlaylist lavaplayerResult = provider.breaker.execute(
+                    () -> new SearchResultHandler().searchSync(provider, query, timeoutMillis),
+                    () -> new SearchingException(String.format("Not searching provider %s, its circuit breaker is open", provider)));
+            if (!lavaplayerResult.getTracks().isEmpty()) {
+                log.debug("Loaded search result {} {} from lavaplayer", provider, query);
+                // got a search result? cache and return it
+                toMemory(provider, cacheKey, lavaplayerResult, System.currentTimeMillis());
+                EntityRepository.runInBackground("SearchResult", "merge", () -> new SearchResult(PLAYER_MANAGER, provider, cacheKey, lavaplayerResult).save());
+                return new ProviderResult(lavaplayerResult, "lavaplayer-" + provider.name().toLowerCase());
+            }
+        } catch (Http503Exception e) {
+            if (provider == SearchProvider.YOUTUBE) {
+                log.warn("Got a 503 from Youtube. Not hitting it with searches it for {} minutes", TimeUnit.MILLISECONDS.toMinutes(DEFAULT_YOUTUBE_COOLDOWN));
+                provider.breaker.trip(DEFAULT_YOUTUBE_COOLDOWN);
+            }
+            searchingException = e;
+        } catch (SearchingException e) {
+            searchingException = e;
+        }
+
+        //3. optional: youtube api
+        if (provider == SearchProvider.YOUTUBE &&
+                (Config.CONFIG.isPatronDistribution() || Config.CONFIG.isDevDistribution())) {
+            try {
+                AudioPlaylist youtubeApiResult = YoutubeAPI.search(query, MAX_RESULTS, PLAYER_MANAGER.source(YoutubeAudioSourceManager.class));
+                if (!youtubeApiResult.getTracks().isEmpty()) {
+                    log.debug("Loaded search result {} {} from Youtube API", provider, query);
+                    // got a search result? cache and return it
+                    toMemory(provider, cacheKey, youtubeApiResult, System.currentTimeMillis());
+                    EntityRepository.runInBackground("SearchResult", "merge", () -> new SearchResult(PLAYER_MANAGER, provider, cacheKey, youtubeApiResult).save());
+                    return new ProviderResult(youtubeApiResult, "youtube-api");
+                }
+            } catch (SearchingException e) {
+                searchingException = e;
+            }
+        }
+
+        if (searchingException != null) {
+            throw searchingException;
+        }
+        return null;
+    }
+
+    /**
+     * A non empty search result together with where it came from, for the search hit metrics.
+     */
+    private static class ProviderResult {
+        private final AudioPlaylist playlist;
+        private final String source;
+
+        private ProviderResult(AudioPlaylist playlist, String source) {
+            this.playlist = playlist;
+            this.source = source;
+        }
+    }
+
+    private static AudioPlaylist fromCache(SearchProvider provider, String cacheKey, long cacheMaxAge) {
         try {
-            return SearchResult.load(PLAYER_MANAGER, provider, query, cacheMaxAge);
+            //a slow database shall not hold up the search, treat it like a cache miss. searches run on the threads of
+            //commands and lavaplayer, which block on the providers anyways, so waiting here for a bit is fine
+            SearchResult sr = EntityRepository.await(EntityRepository.supply("SearchResult", "read",
+                    () -> SearchResult.find(provider, cacheKey, cacheMaxAge), CACHE_READ_TIMEOUT_MILLIS));
+            if (sr == null) {
+                return null;
+            }
+            AudioPlaylist result = sr.decodeSearchResult(PLAYER_MANAGER);
+            if (result == null) {
+                //undecodable, search again and overwrite it
+                return null;
+            }
+            //keep track of when it was used for the least recently used eviction, but don't write on every read
+            long now = System.currentTimeMillis();
+            if (now - sr.getLastAccessed() > LAST_ACCESS_RESOLUTION) {
+                sr.setLastAccessed(now);
+                EntityRepository.runInBackground("SearchResult", "merge", sr::save);
+            }
+            toMemory(provider, cacheKey, result, sr.getTimestamp());
+            return result;
         } catch (DatabaseNotReadyException ignored) {
             log.warn("Could not retrieve cached search result from database.");
             return null;
         }
     }
 
+    /**
+     * @return a copy of the search result held in memory, or null if there is none that is younger than cacheMaxAge
+     */
+    @Nullable
+    private static AudioPlaylist fromMemory(SearchProvider provider, String cacheKey, long cacheMaxAge) {
+        CachedSearch cached = MEMORY_CACHE.getIfPresent(memoryCacheKey(provider, cacheKey));
+        if (cached == null) {
+            return null;
+        }
+        if (cacheMaxAge >= 0 && System.currentTimeMillis() >= cached.timestamp + cacheMaxAge) {
+            return null;
+        }
+        return cached.copyPlaylist();
+    }
+
+    /**
+     * @param timestamp when the search result was originally retrieved from the provider
+     */
+    private static void toMemory(SearchProvider provider, String cacheKey, AudioPlaylist result, long timestamp) {
+        if (result.getTracks().isEmpty()) {
+            return;
+        }
+        MEMORY_CACHE.put(memoryCacheKey(provider, cacheKey), new CachedSearch(result, timestamp));
+    }
+
+    private static String memoryCacheKey(SearchProvider provider, String cacheKey) {
+        return provider.name() + ":" + cacheKey;
+    }
+
+    /**
+     * Turn a search query into the key its results are cached under, so that queries differing only in case,
+     * whitespace or punctuation share their cached results.
+     */
+    public static String normalizeQuery(String query) {
+        String normalized = PUNCTUATION_PATTERN.matcher(query).replaceAll("");
+        normalized = WHITESPACE_PATTERN.matcher(normalized).replaceAll(" ");
+        return normalized.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A search result held in memory. The tracks are never handed out directly, as tracks can't be played more than once.
+     */
+    public static class CachedSearch {
+        private final AudioPlaylist playlist;
+        private final long timestamp;
+
+        private CachedSearch(AudioPlaylist playlist, long timestamp) {
+            this.playlist = copy(playlist);
+            this.timestamp = timestamp;
+        }
+
+        private AudioPlaylist copyPlaylist() {
+            return copy(playlist);
+        }
+
+        private static AudioPlaylist copy(AudioPlaylist playlist) {
+            List<AudioTrack> tracks = new ArrayList<>(playlist.getTracks().size());
+            for (AudioTrack track : playlist.getTracks()) {
+                tracks.add(track.makeClone());
+            }
+            AudioTrack selected = playlist.getSelectedTrack() == null ? null : playlist.getSelectedTrack().makeClone();
+            return new BasicAudioPlaylist(playlist.getName(), tracks, selected, playlist.isSearchResult());
+        }
+    }
+
     public enum SearchProvider {
         YOUTUBE("ytsearch:"),
         SOUNDCLOUD("scsearch:");
 
         private String prefix;
+        private final CircuitBreaker breaker;
 
         SearchProvider(String prefix) {
             this.prefix = prefix;
+            this.breaker = CircuitBreaker.forName("search-" + name().toLowerCase());
         }
 
         public String getPrefix() {
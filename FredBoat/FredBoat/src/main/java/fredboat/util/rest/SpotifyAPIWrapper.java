@@ -34,11 +34,16 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * Created by napster on 08.03.17.
@@ -48,14 +53,29 @@ import java.util.regex.Pattern;
  * When expanding this class, make sure to call refreshTokenIfNecessary() before every request
  */
 public class SpotifyAPIWrapper {
-    //https://regex101.com/r/FkknVc/1
-    private static final Pattern PARAMETER_PATTERN = Pattern.compile("offset=([0-9]*)&limit=([0-9]*)$");
 
     private static final String URL_SPOTIFY_API = "https://api.spotify.com";
     private static final String URL_SPOTIFY_AUTHENTICATION_HOST = "https://accounts.spotify.com";
 
     private static final Logger log = LoggerFactory.getLogger(SpotifyAPIWrapper.class);
 
+    private static final CircuitBreaker BREAKER = CircuitBreaker.forName("spotify-api");
+
+    private static final int PAGE_SIZE = 100; //maximum allowed by spotify
+    private static final int PAGE_FETCH_PARALLELISM = 10;
+    //page fetches of all imports together, so concurrent imports don't multiply the requests we throw at spotify
+    private static final int MAX_CONCURRENT_PAGE_FETCHES = 20;
+    private static final int MAX_RATELIMITED_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+    private static final long MAX_RETRY_AFTER_MILLIS = 30000;
+
+    private static final AtomicInteger pageFetcherThreads = new AtomicInteger(0);
+    private static final ExecutorService pageFetcher = Executors.newFixedThreadPool(MAX_CONCURRENT_PAGE_FETCHES, runnable -> {
+        Thread thread = new Thread(runnable, "spotify-page-fetcher-" + pageFetcherThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * This should be the only way to grab a handle on this class.
      * //TODO is the Singleton pattern really a good idea for production, or does FredBoat need a different design?
@@ -88,12 +108,11 @@ public class SpotifyAPIWrapper {
      */
     private void refreshAccessToken() {
         try {
-            JSONObject jsonClientCredentials = Http.post(URL_SPOTIFY_AUTHENTICATION_HOST + "/api/token",
+            JSONObject jsonClientCredentials = fetchJson(Http.post(URL_SPOTIFY_AUTHENTICATION_HOST + "/api/token",
                     Http.Params.of(
                             "grant_type", "client_credentials"
                     ))
-                    .auth(Credentials.basic(Config.CONFIG.getSpotifyId(), Config.CONFIG.getSpotifySecret()))
-                    .asJson();
+                    .auth(Credentials.basic(Config.CONFIG.getSpotifyId(), Config.CONFIG.getSpotifySecret())));
 
             accessToken = jsonClientCredentials.getString("access_token");
             accessTokenExpires = System.currentTimeMillis() + (jsonClientCredentials.getInt("expires_in") * 1000);
@@ -103,6 +122,13 @@ public class SpotifyAPIWrapper {
         }
     }
 
+    /**
+     * Execute a request to Spotify, unless it has been failing lately.
+     */
+    private static JSONObject fetchJson(Http.SimpleRequest request) throws IOException {
+        return BREAKER.execute(request::asJsonChecked, () -> new IOException("Not calling Spotify, its circuit breaker is open"));
+    }
+
     /**
      * Call this before doing any requests
      */
@@ -116,7 +142,7 @@ public class SpotifyAPIWrapper {
     }
 
     /**
-     * Returns some data on a spotify playlist, currently it's name and tracks total.
+     * Returns some data on a spotify playlist, currently it's name, tracks total and snapshot id.
      *
      * @param userId     Spotify user id of the owner of the requested playlist
      * @param playlistId Spotify playlist identifier
@@ -125,81 +151,148 @@ public class SpotifyAPIWrapper {
     public PlaylistInfo getPlaylistDataBlocking(String userId, String playlistId) throws IOException, JSONException {
         refreshTokenIfNecessary();
 
-        JSONObject jsonPlaylist = Http.get(URL_SPOTIFY_API + "/v1/users/" + userId + "/playlists/" + playlistId)
-                .auth("Bearer " + accessToken)
-                .asJson();
+        JSONObject jsonPlaylist = fetchJson(Http.get(URL_SPOTIFY_API + "/v1/users/" + userId + "/playlists/" + playlistId)
+                .auth("Bearer " + accessToken));
 
         // https://developer.spotify.com/web-api/object-model/#playlist-object-full
         String name = jsonPlaylist.getString("name");
         int tracks = jsonPlaylist.getJSONObject("tracks").getInt("total");
+        String snapshotId = jsonPlaylist.optString("snapshot_id", null);
 
-        return new PlaylistInfo(tracks, name, PlaylistInfo.Source.SPOTIFY);
+        return new PlaylistInfo(tracks, name, PlaylistInfo.Source.SPOTIFY, snapshotId);
     }
 
     /**
-     * @param userId     Spotify user id of the owner of the requested playlist
-     * @param playlistId Spotify playlist identifier
-     * @return a string for each track on the requested playlist, containing track and artist names
+     * Fetch the pages of tracks of a playlist concurrently instead of following the next page links one after another.
+     * The search terms are handed to the consumer as soon as the page containing them arrives, so the pages will arrive
+     * in no particular order, and the consumer will be called from several threads. Pages that got ratelimited are
+     * retried after the time spotify asks us to wait.
+     *
+     * @param userId      Spotify user id of the owner of the requested playlist
+     * @param playlistId  Spotify playlist identifier
+     * @param tracksTotal the amount of tracks on the playlist, as returned by {@link #getPlaylistDataBlocking}
+     * @param consumer    receives the position of each track on the playlist and a string containing its track and
+     *                    artist names
+     * @return a future that completes once all pages have been fetched, or completes exceptionally if one of them
+     * could not be fetched, in which case the remaining pages are not fetched anymore. Cancelling it stops the fetching
+     * of pages as well.
      */
-    public List<String> getPlaylistTracksSearchTermsBlocking(String userId, String playlistId) throws IOException, JSONException {
+    public CompletableFuture<Void> fetchPlaylistTracksSearchTerms(String userId, String playlistId, int tracksTotal,
+                                                                  BiConsumer<Integer, String> consumer) {
         refreshTokenIfNecessary();
 
-        //strings on this list will contain name of the track + names of the artists
-        List<String> list = new ArrayList<>();
-
-        JSONObject jsonPage = null;
-        //get page, then collect its tracks
-        do {
-            String offset = "0";
-            String limit = "100";
-
-            //this determines offset and limit on the 2nd+ pass of the do loop
-            if (jsonPage != null) {
-                String nextPageUrl;
-                if (!jsonPage.has("next") || jsonPage.get("next") == JSONObject.NULL) break;
-                nextPageUrl = jsonPage.getString("next");
-
-                final Matcher m = PARAMETER_PATTERN.matcher(nextPageUrl);
-
-                if (!m.find()) {
-                    log.debug("Did not find parameter pattern in next page URL provided by Spotify");
-                    break;
+        int pages = Math.max(1, (tracksTotal + PAGE_SIZE - 1) / PAGE_SIZE);
+        int lanes = Math.min(pages, PAGE_FETCH_PARALLELISM);
+        CompletableFuture<?>[] futures = new CompletableFuture[lanes];
+        //set once a lane failed or the caller gave up, the other lanes stop before their next page
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        //each lane fetches every lanes-th page, so that no more than PAGE_FETCH_PARALLELISM requests of this playlist
+        //run at once, and the lanes of all imports share the threads of the page fetcher
+        for (int lane = 0; lane < lanes; lane++) {
+            int firstPage = lane;
+            futures[lane] = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int page = firstPage; page < pages && !stopped.get(); page += lanes) {
+                        int offset = page * PAGE_SIZE;
+                        boolean hasNext = fetchPage(userId, playlistId, offset, consumer);
+                        //the playlist grew since we asked for its size, follow the next links of the last page
+                        while (hasNext && page == pages - 1 && !stopped.get()) {
+                            offset += PAGE_SIZE;
+                            hasNext = fetchPage(userId, playlistId, offset, consumer);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    stopped.set(true);
+                    throw e;
                 }
-                //We are trusting Spotify to get their shit together and provide us sane values for these
-                offset = m.group(1);
-                limit = m.group(2);
-            }
+            }, pageFetcher);
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures);
+        all.whenComplete((ignored, t) -> {
+            if (all.isCancelled()) stopped.set(true);
+        });
+        return all;
+    }
 
-            //request a page of tracks
-            jsonPage = Http.get(URL_SPOTIFY_API + "/v1/users/" + userId + "/playlists/" + playlistId + "/tracks",
-                    Http.Params.of(
-                            "offset", offset,
-                            "limit", limit
-                    ))
-                    .auth("Bearer " + accessToken)
-                    .asJson();
+    /**
+     * @return true if there is a next page after this one
+     */
+    private boolean fetchPage(String userId, String playlistId, int offset, BiConsumer<Integer, String> consumer) {
+        JSONObject jsonPage;
+        try {
+            jsonPage = fetchPageJson(userId, playlistId, offset);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
 
-            //add tracks to our result list
-            // https://developer.spotify.com/web-api/object-model/#paging-object
-            JSONArray jsonTracks = jsonPage.getJSONArray("items");
+        JSONArray jsonTracks = jsonPage.getJSONArray("items");
+        for (int i = 0; i < jsonTracks.length(); i++) {
+            String searchTerm = toSearchTerm(jsonTracks.getJSONObject(i));
+            if (searchTerm != null) {
+                consumer.accept(offset + i, searchTerm);
+            }
+        }
+        return jsonPage.has("next") && jsonPage.get("next") != JSONObject.NULL;
+    }
 
-            jsonTracks.forEach((jsonPlaylistTrack) -> {
+    /**
+     * Fetch a page of tracks, waiting out and retrying ratelimited attempts
+     */
+    private JSONObject fetchPageJson(String userId, String playlistId, int offset) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return fetchJson(Http.get(URL_SPOTIFY_API + "/v1/users/" + userId + "/playlists/" + playlistId + "/tracks",
+                        Http.Params.of(
+                                "offset", Integer.toString(offset),
+                                "limit", Integer.toString(PAGE_SIZE)
+                        ))
+                        .auth("Bearer " + accessToken));
+            } catch (HttpStatusException e) {
+                if (e.getCode() != 429 || attempt >= MAX_RATELIMITED_ATTEMPTS) {
+                    throw e;
+                }
+                long waitMillis = retryAfterMillis(e.getRetryAfter());
+                log.debug("Ratelimited by spotify fetching offset {} of playlist {}, retrying in {}ms", offset, playlistId, waitMillis);
                 try {
-                    JSONObject track = ((JSONObject) jsonPlaylistTrack).getJSONObject("track");
-                    final StringBuilder trackNameAndArtists = new StringBuilder();
-                    trackNameAndArtists.append(track.getString("name"));
+                    Thread.sleep(waitMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting out a spotify ratelimit", ie);
+                }
+            }
+        }
+    }
 
-                    track.getJSONArray("artists").forEach((jsonArtist) -> trackNameAndArtists.append(" ")
-                            .append(((JSONObject) jsonArtist).getString("name")));
+    /**
+     * @param retryAfter value of a Retry-After header, spotify sends it in seconds
+     */
+    private static long retryAfterMillis(@Nullable String retryAfter) {
+        if (retryAfter == null) return DEFAULT_RETRY_AFTER_MILLIS;
+        try {
+            long millis = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            return Math.max(0, Math.min(millis, MAX_RETRY_AFTER_MILLIS));
+        } catch (NumberFormatException e) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+    }
 
-                    list.add(trackNameAndArtists.toString());
-                } catch (Exception e) {
-                    log.warn("Could not create track from json, skipping", e);
-                }
-            });
+    /**
+     * @return the name of the track followed by the names of its artists, or null if the json could not be parsed
+     */
+    @Nullable
+    private static String toSearchTerm(JSONObject jsonPlaylistTrack) {
+        try {
+            JSONObject track = jsonPlaylistTrack.getJSONObject("track");
+            final StringBuilder trackNameAndArtists = new StringBuilder();
+            trackNameAndArtists.append(track.getString("name"));
 
-        } while (jsonPage.has("next") && jsonPage.get("next") != null);
+            track.getJSONArray("artists").forEach((jsonArtist) -> trackNameAndArtists.append(" ")
+                    .append(((JSONObject) jsonArtist).getString("name")));
 
-        return list;
+            return trackNameAndArtists.toString();
+        } catch (Exception e) {
+            log.warn("Could not create track from json, skipping", e);
+            return null;
+        }
     }
 }
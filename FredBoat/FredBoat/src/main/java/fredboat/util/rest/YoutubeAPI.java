@@ -49,9 +49,18 @@ public class YoutubeAPI {
     public static final String YOUTUBE_SEARCH = "https://www.googleapis.com/youtube/v3/search?part=snippet";
     public static final String YOUTUBE_CHANNEL = "https://www.googleapis.com/youtube/v3/channels?part=snippet&fields=items(snippet/thumbnails)";
 
+    private static final CircuitBreaker BREAKER = CircuitBreaker.forName("youtube-api");
+
     private YoutubeAPI() {
     }
 
+    /**
+     * Execute a request to the Youtube Data API, unless it has been failing lately.
+     */
+    static JSONObject fetchJson(Http.SimpleRequest request) throws IOException {
+        return BREAKER.execute(request::asJsonChecked, () -> new IOException("Not calling the Youtube API, its circuit breaker is open"));
+    }
+
     private static YoutubeVideo getVideoFromID(String id) {
         Http.SimpleRequest simpleRequest = Http.get(YOUTUBE_VIDEO, Http.Params.of(
                 "id", id,
@@ -60,7 +69,7 @@ public class YoutubeAPI {
 
         JSONObject data = null;
         try {
-            data = simpleRequest.asJson();
+            data = fetchJson(simpleRequest);
             YoutubeVideo vid = new YoutubeVideo();
             vid.id = data.getJSONArray("items").getJSONObject(0).getString("id");
             vid.name = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("title");
@@ -85,7 +94,7 @@ public class YoutubeAPI {
 
             JSONObject data = null;
             try {
-                data = request.asJson();
+                data = fetchJson(request);
                 YoutubeVideo vid = new YoutubeVideo();
                 vid.id = data.getJSONArray("items").getJSONObject(0).getString("id");
                 vid.name = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("title");
@@ -130,7 +139,7 @@ public class YoutubeAPI {
                 "q", query
         ));
         try {
-            data = request.asJson();
+            data = fetchJson(request);
         } catch (IOException e) {
             throw new SearchUtil.SearchingException("Youtube API search failed", e);
         }
@@ -132,7 +132,7 @@ public class YoutubeVideo {
                         "key", Config.CONFIG.getRandomGoogleKey()
                 ));
         try {
-            JSONObject json = request.asJson();
+            JSONObject json = YoutubeAPI.fetchJson(request);
             log.debug("Channel thumb response");
             return json.getJSONArray("items")
                     .getJSONObject(0)
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.commandmeta;
+
+import fredboat.commandmeta.abs.Command;
+import fredboat.commandmeta.abs.CommandContext;
+import fredboat.messaging.internal.Context;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+
+public class CommandParserTest {
+
+    private static final long SELF_ID = 184405311681986560L;
+
+    //kept apart from the CommandRegistry, so the dummy command doesn't show up in other tests
+    private static final CommandTrie commands = new CommandTrie();
+
+    @BeforeAll
+    public static void registerCommand() {
+        CommandRegistry.CommandEntry entry = new CommandRegistry.CommandEntry(new Command("parsertest", "p.t+") {
+            @Override
+            public int getCommandRank() {
+                return 0;
+            }
+
+            @Override
+            public void onInvoke(@Nonnull CommandContext context) {
+            }
+
+            @Nonnull
+            @Override
+            public String help(@Nonnull Context context) {
+                return "";
+            }
+        }, "parsertest");
+        commands.put("parsertest", entry);
+        commands.put("p.t+", entry);
+    }
+
+    @Test
+    public void testMentionPrefix() {
+        Assertions.assertEquals(21, CommandParser.mentionPrefixEnd("<@184405311681986560> play", SELF_ID));
+        Assertions.assertEquals(22, CommandParser.mentionPrefixEnd("<@!184405311681986560>play", SELF_ID));
+        Assertions.assertEquals(-1, CommandParser.mentionPrefixEnd("<@184405311681986561> play", SELF_ID));
+        Assertions.assertEquals(-1, CommandParser.mentionPrefixEnd("<@184405311681986560 play", SELF_ID));
+        Assertions.assertEquals(-1, CommandParser.mentionPrefixEnd("<@99999999999999999999999>", SELF_ID));
+        Assertions.assertEquals(-1, CommandParser.mentionPrefixEnd("<@>", SELF_ID));
+        Assertions.assertEquals(-1, CommandParser.mentionPrefixEnd("hello there", SELF_ID));
+    }
+
+    @Test
+    public void testParse() {
+        CommandParser.ParsedCommand parsed = CommandParser.parseCommand(";; PaRsErTeSt  foo\n bar\tbaz  ", 2, commands);
+        Assertions.assertNotNull(parsed);
+        Assertions.assertNotNull(parsed.getEntry());
+        Assertions.assertEquals("parsertest", parsed.getEntry().name);
+        Assertions.assertEquals("PaRsErTeSt", parsed.getTrigger());
+        Assertions.assertArrayEquals(new String[]{"foo", "bar", "baz"}, parsed.getArgs());
+        Assertions.assertEquals("foo\n bar\tbaz", parsed.getRawArgs());
+    }
+
+    @Test
+    public void testTriggerWithRegexCharacters() {
+        CommandParser.ParsedCommand parsed = CommandParser.parseCommand(";;p.t+ p.t+ x", 2, commands);
+        Assertions.assertNotNull(parsed);
+        Assertions.assertNotNull(parsed.getEntry());
+        Assertions.assertEquals("p.t+ x", parsed.getRawArgs());
+        Assertions.assertArrayEquals(new String[]{"p.t+", "x"}, parsed.getArgs());
+    }
+
+    @Test
+    public void testNoCommand() {
+        Assertions.assertNull(CommandParser.parseCommand(";;   ", 2, commands));
+        CommandParser.ParsedCommand parsed = CommandParser.parseCommand(";;parsertestx", 2, commands);
+        Assertions.assertNotNull(parsed);
+        Assertions.assertNull(parsed.getEntry());
+        parsed = CommandParser.parseCommand(";;parser", 2, commands);
+        Assertions.assertNotNull(parsed);
+        Assertions.assertNull(parsed.getEntry());
+        Assertions.assertArrayEquals(new String[0], parsed.getArgs());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.messaging;
+
+import net.dv8tion.jda.core.MessageBuilder;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.MessageChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+public class OutboundQueueTest {
+
+    //content of messages that the sender refuses synchronously, like JDA does for a VerificationLevelException
+    private static final String REFUSED = "refused";
+
+    private final MessageChannel channel = channel(1);
+    private final List<Sent> sent = new ArrayList<>();
+    private final List<Throwable> failures = new ArrayList<>();
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final OutboundQueue queue = new OutboundQueue(scheduler, TimeUnit.MINUTES.toMillis(1));
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testPriorityOrder() {
+        submit(channel, "first", MessagePriority.ANNOUNCEMENT, null);
+        submit(channel, "announcement", MessagePriority.ANNOUNCEMENT, null);
+        submit(channel, "error", MessagePriority.ERROR, null);
+        submit(channel, "reply 1", MessagePriority.REPLY, null);
+        submit(channel, "reply 2", MessagePriority.REPLY, null);
+
+        //only one message per channel is in flight, other channels are not held up by it
+        Assertions.assertEquals(Arrays.asList("first"), sentContents());
+        submit(channel(2), "other channel", MessagePriority.ANNOUNCEMENT, null);
+        Assertions.assertEquals(Arrays.asList("first", "other channel"), sentContents());
+
+        answerAll();
+        Assertions.assertEquals(Arrays.asList("first", "other channel", "reply 1", "reply 2", "error", "announcement"),
+                sentContents());
+        Assertions.assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void testSupersede() {
+        submit(channel, "now playing 1", MessagePriority.ANNOUNCEMENT, "np");
+        submit(channel, "now playing 2", MessagePriority.ANNOUNCEMENT, "np");
+        submit(channel, "unrelated", MessagePriority.ANNOUNCEMENT, null);
+        submit(channel, "now playing 3", MessagePriority.ANNOUNCEMENT, "np");
+
+        //the message in flight can't be taken back, only queued ones are superseded
+        Assertions.assertEquals(1, dropped.get());
+        answerAll();
+        Assertions.assertEquals(Arrays.asList("now playing 1", "unrelated", "now playing 3"), sentContents());
+        Assertions.assertEquals(1, dropped.get());
+    }
+
+    @Test
+    public void testFailureDrains() {
+        //refused right away while nothing is in flight
+        submit(channel, REFUSED, MessagePriority.REPLY, null);
+        Assertions.assertEquals(1, failures.size());
+        Assertions.assertTrue(failures.get(0) instanceof UnsupportedOperationException);
+        submit(channel, "after refused", MessagePriority.REPLY, null);
+        Assertions.assertEquals(Arrays.asList("after refused"), sentContents());
+
+        //refused once it is its turn, and failing asynchronously
+        submit(channel, REFUSED, MessagePriority.REPLY, null);
+        submit(channel, "failing", MessagePriority.REPLY, null);
+        submit(channel, "last", MessagePriority.REPLY, null);
+        sent.get(0).onSuccess.accept(sent.get(0).message);
+        Assertions.assertEquals(2, failures.size());
+        Assertions.assertEquals(Arrays.asList("after refused", "failing"), sentContents());
+
+        RuntimeException failure = new RuntimeException("Request failed");
+        sent.get(1).onFail.accept(failure);
+        Assertions.assertSame(failure, failures.get(2));
+        Assertions.assertEquals(Arrays.asList("after refused", "failing", "last"), sentContents());
+
+        //late or repeated answers must not send the next message twice
+        sent.get(1).onSuccess.accept(sent.get(1).message);
+        sent.get(1).onFail.accept(failure);
+        Assertions.assertEquals(3, failures.size());
+        answerAll();
+        submit(channel, "idle again", MessagePriority.REPLY, null);
+        Assertions.assertEquals(Arrays.asList("after refused", "failing", "last", "idle again"), sentContents());
+    }
+
+    @Test
+    public void testInFlightTimeout() throws InterruptedException {
+        OutboundQueue timingOut = new OutboundQueue(scheduler, 50);
+        List<String> delivered = new ArrayList<>();
+        List<Throwable> timedOut = new ArrayList<>();
+        //counted down by the failure of the first message and the delivery of the second one
+        CountDownLatch done = new CountDownLatch(2);
+        Consumer<Throwable> onFail = t -> {
+            timedOut.add(t);
+            done.countDown();
+        };
+        //the first message never gets an answer
+        timingOut.submit(channel, (onSuccess, fail) -> delivered.add("lost"), MessagePriority.REPLY, null, m -> {
+        }, onFail, dropped::incrementAndGet);
+        timingOut.submit(channel, (onSuccess, fail) -> {
+            delivered.add("next");
+            onSuccess.accept(null);
+            done.countDown();
+        }, MessagePriority.REPLY, null, m -> {
+        }, onFail, dropped::incrementAndGet);
+
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList("lost", "next"), delivered);
+        Assertions.assertEquals(1, timedOut.size());
+        Assertions.assertTrue(timedOut.get(0) instanceof TimeoutException);
+    }
+
+    private void submit(MessageChannel channel, String content, MessagePriority priority, String supersedeKey) {
+        Message message = new MessageBuilder().append(content).build();
+        queue.submit(channel, (onSuccess, onFail) -> {
+            if (REFUSED.equals(message.getRawContent())) {
+                throw new UnsupportedOperationException("Refused " + message.getRawContent());
+            }
+            sent.add(new Sent(message, onSuccess, onFail));
+        }, priority, supersedeKey, m -> {
+        }, failures::add, dropped::incrementAndGet);
+    }
+
+    //succeeds messages in flight until no channel has one left
+    private void answerAll() {
+        for (int i = 0; i < sent.size(); i++) {
+            Sent s = sent.get(i);
+            s.onSuccess.accept(s.message);
+        }
+    }
+
+    private List<String> sentContents() {
+        return sent.stream()
+                .map(s -> s.message.getRawContent())
+                .collect(Collectors.toList());
+    }
+
+    private static MessageChannel channel(long id) {
+        return (MessageChannel) Proxy.newProxyInstance(MessageChannel.class.getClassLoader(),
+                new Class[]{MessageChannel.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getIdLong":
+                            return id;
+                        case "getId":
+                            return Long.toString(id);
+                        case "hashCode":
+                            return Long.hashCode(id);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "MessageChannel " + id;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static class Sent {
+        private final Message message;
+        private final Consumer<Message> onSuccess;
+        private final Consumer<Throwable> onFail;
+
+        private Sent(Message message, Consumer<Message> onSuccess, Consumer<Throwable> onFail) {
+            this.message = message;
+            this.onSuccess = onSuccess;
+            this.onFail = onFail;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+public class TrackListCodecTest {
+
+    private static AudioPlayerManager playerManager;
+    private static YoutubeAudioSourceManager youtube;
+
+    @BeforeAll
+    public static void setUp() {
+        playerManager = new DefaultAudioPlayerManager();
+        youtube = new YoutubeAudioSourceManager();
+        playerManager.registerSourceManager(youtube);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        playerManager.shutdown();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        TrackListCodec.EncodedTrackList original = randomTrackList(5, 150);
+
+        byte[] encoded = TrackListCodec.encode(original);
+        Assertions.assertTrue(TrackListCodec.isEncoded(encoded));
+        TrackListCodec.EncodedTrackList decoded = TrackListCodec.decode(encoded);
+
+        Assertions.assertEquals(original.name, decoded.name);
+        Assertions.assertEquals(original.isSearchResult, decoded.isSearchResult);
+        Assertions.assertNull(decoded.selectedTrack);
+        Assertions.assertEquals(original.tracks.length, decoded.tracks.length);
+        for (int i = 0; i < original.tracks.length; i++) {
+            Assertions.assertArrayEquals(original.tracks[i], decoded.tracks[i]);
+        }
+    }
+
+    @Test
+    public void testEmptyTrackList() throws IOException {
+        TrackListCodec.EncodedTrackList empty = new TrackListCodec.EncodedTrackList(null, new byte[0][], null, true);
+
+        TrackListCodec.EncodedTrackList decoded = TrackListCodec.decode(TrackListCodec.encode(empty));
+
+        Assertions.assertNull(decoded.name);
+        Assertions.assertEquals(0, decoded.tracks.length);
+    }
+
+    @Test
+    public void testPlaylistRoundTrip() throws IOException {
+        List<AudioTrack> tracks = youtubeTracks(5);
+        AudioPlaylist original = new BasicAudioPlaylist("Search result for: never gonna give you up", tracks,
+                tracks.get(2), true);
+
+        AudioPlaylist decoded = TrackListCodec.decodePlaylist(playerManager,
+                TrackListCodec.encodePlaylist(playerManager, original));
+
+        Assertions.assertEquals(original.getName(), decoded.getName());
+        Assertions.assertTrue(decoded.isSearchResult());
+        Assertions.assertEquals(tracks.size(), decoded.getTracks().size());
+        for (int i = 0; i < tracks.size(); i++) {
+            assertSameTrack(tracks.get(i), decoded.getTracks().get(i));
+        }
+        assertSameTrack(tracks.get(2), decoded.getSelectedTrack());
+    }
+
+    @Test
+    public void testExportRoundTrip() throws IOException {
+        List<AudioTrack> tracks = youtubeTracks(50);
+
+        String export = TrackListCodec.encodeExport(playerManager, tracks);
+        Assertions.assertTrue(TrackListCodec.isExport(export));
+        List<TrackListCodec.ExportEntry> entries = TrackListCodec.decodeExport("\n" + export + "\n");
+
+        Assertions.assertEquals(tracks.size(), entries.size());
+        for (int i = 0; i < tracks.size(); i++) {
+            Assertions.assertEquals(tracks.get(i).getInfo().uri, entries.get(i).uri);
+            assertSameTrack(tracks.get(i), TrackListCodec.decodeTrack(playerManager, entries.get(i).track));
+        }
+    }
+
+    @Test
+    public void testResolvedRoundTrip() throws IOException {
+        List<AudioTrack> tracks = youtubeTracks(20);
+        List<Tuple2<String, AudioTrack>> original = new ArrayList<>();
+        for (int i = 0; i < tracks.size(); i++) {
+            //some searches find nothing
+            original.add(new Tuple2<>("never gonna give you up " + i, i % 4 == 0 ? null : tracks.get(i)));
+        }
+
+        List<Tuple2<String, AudioTrack>> decoded = TrackListCodec.decodeResolved(playerManager,
+                TrackListCodec.encodeResolved(playerManager, original));
+
+        Assertions.assertEquals(original.size(), decoded.size());
+        for (int i = 0; i < original.size(); i++) {
+            Assertions.assertEquals(original.get(i).a, decoded.get(i).a);
+            if (original.get(i).b == null) {
+                Assertions.assertNull(decoded.get(i).b);
+            } else {
+                assertSameTrack(original.get(i).b, decoded.get(i).b);
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedResolved() throws IOException {
+        //the format stored before resolved playlists moved to this codec
+        Assertions.assertThrows(IOException.class, () -> TrackListCodec.decodeResolved(playerManager, new byte[]{0x78, 0x01, 0x02}));
+
+        //absurd track count
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        framed.write(0xFB);
+        framed.write(TrackListCodec.VERSION);
+        framed.write(0);
+        new DataOutputStream(framed).writeInt(Integer.MAX_VALUE);
+        Assertions.assertThrows(IOException.class, () -> TrackListCodec.decodeResolved(playerManager, framed.toByteArray()));
+    }
+
+    @Test
+    public void testMalformedExports() throws IOException {
+        Assertions.assertThrows(IOException.class, () -> TrackListCodec.decodeExport("https://youtu.be/dQw4w9WgXcQ"));
+        Assertions.assertThrows(IOException.class, () -> TrackListCodec.decodeExport(TrackListCodec.EXPORT_PREFIX + "%%%"));
+        Assertions.assertThrows(IOException.class, () -> TrackListCodec.decodeExport(TrackListCodec.EXPORT_PREFIX));
+
+        //truncated
+        String export = TrackListCodec.encodeExport(playerManager, youtubeTracks(3));
+        Assertions.assertThrows(IOException.class, () -> TrackListCodec.decodeExport(export.substring(0, export.length() - 20)));
+
+        //absurd track count
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(Integer.MAX_VALUE);
+        assertRejected(body.toByteArray(), false);
+
+        //absurd track size
+        body = new ByteArrayOutputStream();
+        out = new DataOutputStream(body);
+        out.writeInt(1);
+        out.writeBoolean(false);
+        out.writeInt(Integer.MAX_VALUE - 8);
+        assertRejected(body.toByteArray(), false);
+
+        //every track within bounds, but inflating to more than the body may have
+        body = new ByteArrayOutputStream();
+        out = new DataOutputStream(body);
+        int trackBytes = 4096;
+        out.writeInt(TrackListCodec.MAX_TRACKS);
+        for (int i = 0; i < TrackListCodec.MAX_TRACKS; i++) {
+            out.writeBoolean(false);
+            out.writeInt(trackBytes);
+            out.write(new byte[trackBytes]);
+        }
+        Assertions.assertTrue(body.size() > TrackListCodec.MAX_BODY_BYTES);
+        assertRejected(body.toByteArray(), true);
+    }
+
+    /**
+     * The compact format has to beat java serialization of the same data, which is how search results used to be
+     * stored. Uses real encoded tracks, as the deflating of the compact format relies on their shared structure.
+     */
+    @Test
+    public void testSmallerThanJavaSerialization() {
+        byte[][] tracks = TrackListCodec.encodeTracks(playerManager, youtubeTracks(10));
+        TrackListCodec.EncodedTrackList trackList = new TrackListCodec.EncodedTrackList(
+                "Search result for: never gonna give you up", tracks, null, true);
+
+        byte[] compact = TrackListCodec.encode(trackList);
+        byte[] serialized = SerializationUtils.serialize(new LegacyPlaylist(trackList));
+
+        Assertions.assertTrue(compact.length < serialized.length * 0.8,
+                () -> "compact " + compact.length + " bytes, serialized " + serialized.length + " bytes");
+        Assertions.assertFalse(TrackListCodec.isEncoded(serialized));
+    }
+
+    private static void assertRejected(byte[] body, boolean compress) throws IOException {
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        framed.write(0xFB);
+        framed.write(TrackListCodec.VERSION);
+        framed.write(compress ? 1 : 0);
+        if (compress) {
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(framed)) {
+                deflater.write(body);
+            }
+        } else {
+            framed.write(body);
+        }
+        String paste = TrackListCodec.EXPORT_PREFIX + Base64.getEncoder().encodeToString(framed.toByteArray());
+        Assertions.assertThrows(IOException.class, () -> TrackListCodec.decodeExport(paste));
+    }
+
+    private static void assertSameTrack(AudioTrack expected, AudioTrack actual) {
+        Assertions.assertNotNull(actual);
+        Assertions.assertEquals(expected.getIdentifier(), actual.getIdentifier());
+        Assertions.assertEquals(expected.getInfo().title, actual.getInfo().title);
+        Assertions.assertEquals(expected.getInfo().author, actual.getInfo().author);
+        Assertions.assertEquals(expected.getInfo().length, actual.getInfo().length);
+        Assertions.assertEquals(expected.getInfo().uri, actual.getInfo().uri);
+    }
+
+    static List<AudioTrack> youtubeTracks(int size) {
+        Random random = new Random(42);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        List<AudioTrack> tracks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder id = new StringBuilder();
+            for (int j = 0; j < 11; j++) {
+                id.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            AudioTrackInfo info = new AudioTrackInfo("Rick Astley - Never Gonna Give You Up (Official Music Video) part " + i,
+                    "RickAstleyVEVO", 180000 + random.nextInt(120000), id.toString(), false,
+                    "https://www.youtube.com/watch?v=" + id);
+            tracks.add(new YoutubeAudioTrack(info, youtube));
+        }
+        return tracks;
+    }
+
+    private static TrackListCodec.EncodedTrackList randomTrackList(int size, int trackLength) {
+        //encoded tracks share a lot of structure, mimic that a bit so compression has something to work with
+        Random random = new Random(42);
+        byte[][] tracks = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            tracks[i] = new byte[trackLength];
+            for (int j = 0; j < trackLength; j++) {
+                tracks[i][j] = (byte) (j % 3 == 0 ? random.nextInt() : j);
+            }
+        }
+        return new TrackListCodec.EncodedTrackList("Search result for: never gonna give you up", tracks, null, true);
+    }
+
+    private static class LegacyPlaylist implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final byte[][] tracks;
+        private final byte[] selectedTrack;
+        private final boolean isSearchResult;
+
+        LegacyPlaylist(TrackListCodec.EncodedTrackList trackList) {
+            this.name = trackList.name;
+            this.tracks = trackList.tracks;
+            this.selectedTrack = trackList.selectedTrack;
+            this.isSearchResult = trackList.isSearchResult;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.ratelimit;
+
+import fredboat.FakeContext;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.User;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class RatelimitTest {
+
+    private static final long MAX_REQUESTS = 5;
+    private static final long MILLIS = 10000;
+    //time that a single request takes up in a bucket with the above limit
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(MILLIS / MAX_REQUESTS);
+
+    private static final long USER = 1;
+    private static final long OTHER_USER = 2;
+
+    //nanoseconds, as seen by the ratelimits created by this test
+    private long time = 0;
+    //run once, the next time a ratelimit looks at the clock
+    private Runnable onNextClockRead = null;
+
+    @Test
+    public void testBurst() {
+        Ratelimit ratelimit = ratelimit(Collections.emptySet());
+        Assertions.assertEquals(MAX_REQUESTS, acquireAll(ratelimit, USER));
+        Assertions.assertFalse(ratelimit.tryAcquire(USER, 1));
+
+        //buckets are kept apart
+        Assertions.assertEquals(MAX_REQUESTS, acquireAll(ratelimit, OTHER_USER));
+    }
+
+    @Test
+    public void testSmoothRefill() {
+        Ratelimit ratelimit = ratelimit(Collections.emptySet());
+        Assertions.assertEquals(MAX_REQUESTS, acquireAll(ratelimit, USER));
+
+        //one request becomes available per interval, not all of them at the end of the time span
+        time = INTERVAL - 1;
+        Assertions.assertFalse(ratelimit.tryAcquire(USER, 1));
+        time = INTERVAL;
+        Assertions.assertEquals(1, acquireAll(ratelimit, USER));
+        time = 3 * INTERVAL;
+        Assertions.assertEquals(2, acquireAll(ratelimit, USER));
+
+        //a bucket that had the time to fill up allows a full burst again, and not more than that
+        time = 100 * INTERVAL;
+        Assertions.assertEquals(MAX_REQUESTS, acquireAll(ratelimit, USER));
+    }
+
+    @Test
+    public void testHeavyRequest() {
+        Ratelimit ratelimit = ratelimit(Collections.emptySet());
+        //a request heavier than the whole bucket is let through once, if the bucket is full
+        Assertions.assertTrue(ratelimit.tryAcquire(USER, 20));
+        Assertions.assertFalse(ratelimit.tryAcquire(USER, 1));
+
+        //and keeps the bucket empty for correspondingly longer
+        time = 16 * INTERVAL - 1;
+        Assertions.assertFalse(ratelimit.tryAcquire(USER, 1));
+        time = 16 * INTERVAL;
+        Assertions.assertEquals(1, acquireAll(ratelimit, USER));
+
+        //a heavy request only needs room for a single request, it doesn't wait for the bucket to be full
+        time = 100 * INTERVAL;
+        Assertions.assertTrue(ratelimit.tryAcquire(OTHER_USER, 1));
+        Assertions.assertTrue(ratelimit.tryAcquire(OTHER_USER, 20));
+        Assertions.assertFalse(ratelimit.tryAcquire(OTHER_USER, 1));
+    }
+
+    @Test
+    public void testWhitelist() {
+        Ratelimit ratelimit = ratelimit(Collections.singleton(USER));
+        for (int i = 0; i < MAX_REQUESTS * 10; i++) {
+            Assertions.assertTrue(ratelimit.isAllowed(context(USER), 1));
+        }
+        Assertions.assertTrue(ratelimit.isAllowed(context(USER), 100));
+
+        for (int i = 0; i < MAX_REQUESTS; i++) {
+            Assertions.assertTrue(ratelimit.isAllowed(context(OTHER_USER), 1));
+        }
+        Assertions.assertFalse(ratelimit.isAllowed(context(OTHER_USER), 1));
+
+        //whitelisted users don't get a bucket at all
+        Assertions.assertEquals(1, ratelimit.sweep());
+    }
+
+    @Test
+    public void testSweepAndLift() {
+        Ratelimit ratelimit = ratelimit(Collections.emptySet());
+        Assertions.assertTrue(ratelimit.tryAcquire(USER, 2));
+        Assertions.assertTrue(ratelimit.tryAcquire(OTHER_USER, 1));
+
+        //only buckets that are full again get removed
+        Assertions.assertEquals(2, ratelimit.sweep());
+        time = INTERVAL;
+        Assertions.assertEquals(1, ratelimit.sweep());
+        time = 2 * INTERVAL;
+        Assertions.assertEquals(0, ratelimit.sweep());
+
+        //lifting a limit hands out a full bucket
+        Assertions.assertEquals(MAX_REQUESTS, acquireAll(ratelimit, USER));
+        ratelimit.liftLimit(USER);
+        Assertions.assertEquals(MAX_REQUESTS, acquireAll(ratelimit, USER));
+    }
+
+    @Test
+    public void testLiftRacingAcquire() {
+        Ratelimit ratelimit = ratelimit(Collections.emptySet());
+        Assertions.assertTrue(ratelimit.tryAcquire(USER, 4));
+
+        //lifted after the bucket has been looked up, but before the request took from it
+        onNextClockRead = () -> ratelimit.liftLimit(USER);
+        Assertions.assertTrue(ratelimit.tryAcquire(USER, 1));
+        Assertions.assertNull(onNextClockRead);
+
+        //the request went to the fresh bucket
+        Assertions.assertEquals(MAX_REQUESTS - 1, acquireAll(ratelimit, USER));
+    }
+
+    @Test
+    public void testSweepRacingAcquire() {
+        Ratelimit ratelimit = ratelimit(Collections.emptySet());
+        Assertions.assertTrue(ratelimit.tryAcquire(USER, 1));
+        time = INTERVAL;
+
+        //swept after the bucket has been looked up, but before the request took from it
+        onNextClockRead = ratelimit::sweep;
+        Assertions.assertTrue(ratelimit.tryAcquire(USER, 1));
+        Assertions.assertNull(onNextClockRead);
+
+        //the request went to a bucket that is in use, not to the one that was thrown away
+        Assertions.assertEquals(1, ratelimit.sweep());
+        Assertions.assertEquals(MAX_REQUESTS - 1, acquireAll(ratelimit, USER));
+    }
+
+    private Ratelimit ratelimit(Set<Long> whitelist) {
+        return new Ratelimit(whitelist, Ratelimit.Scope.USER, MAX_REQUESTS, MILLIS, null, () -> {
+            Runnable hook = onNextClockRead;
+            onNextClockRead = null;
+            if (hook != null) {
+                hook.run();
+            }
+            return time;
+        });
+    }
+
+    //takes single requests until the bucket is empty, with a cap in case it never gets empty
+    private static int acquireAll(Ratelimit ratelimit, long id) {
+        int allowed = 0;
+        while (allowed < MAX_REQUESTS * 10 && ratelimit.tryAcquire(id, 1)) {
+            allowed++;
+        }
+        return allowed;
+    }
+
+    private static FakeContext context(long userId) {
+        User user = proxy(User.class, userId);
+        Member member = (Member) Proxy.newProxyInstance(Member.class.getClassLoader(), new Class[]{Member.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getUser")) {
+                        return user;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return new FakeContext(null, member, null);
+    }
+
+    //an entity that knows nothing but its id
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> clazz, long id) {
+        return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getIdLong":
+                            return id;
+                        case "getId":
+                            return Long.toString(id);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}